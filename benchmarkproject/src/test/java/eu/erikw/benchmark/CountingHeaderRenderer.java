@@ -0,0 +1,97 @@
+package eu.erikw.benchmark;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import eu.erikw.HeaderRenderer;
+
+/**
+ * A HeaderRenderer with a fixed-height header that counts what the list asks of it:
+ * layout param changes of the header view and state transitions. Repeated calls for
+ * the same state (for example after a text change) are not transitions.
+ */
+class CountingHeaderRenderer implements HeaderRenderer{
+
+    static final int HEADER_HEIGHT = 120;
+
+    private static final int PULL_TO_REFRESH    = 1;
+    private static final int RELEASE_TO_REFRESH = 2;
+    private static final int REFRESHING         = 3;
+
+    private int state;
+    private int setLayoutParamsCount;
+    private int stateTransitionCount;
+
+    void resetCounts(){
+        setLayoutParamsCount = 0;
+        stateTransitionCount = 0;
+    }
+
+    int getSetLayoutParamsCount(){
+        return setLayoutParamsCount;
+    }
+
+    int getStateTransitionCount(){
+        return stateTransitionCount;
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container){
+        return new CountingHeaderView(container.getContext());
+    }
+
+    @Override
+    public void onPullProgress(float progress){
+    }
+
+    @Override
+    public void onPullToRefresh(CharSequence text, boolean animate){
+        transition(PULL_TO_REFRESH);
+    }
+
+    @Override
+    public void onReleaseToRefresh(CharSequence text, boolean animate){
+        transition(RELEASE_TO_REFRESH);
+    }
+
+    @Override
+    public void onRefreshing(CharSequence text){
+        transition(REFRESHING);
+    }
+
+    @Override
+    public void onLastUpdatedChanged(CharSequence lastUpdated){
+    }
+
+    @Override
+    public int getMeasureKey(){
+        return 0;
+    }
+
+    private void transition(int newState){
+        if(newState != state){
+            state = newState;
+            stateTransitionCount++;
+        }
+    }
+
+    private class CountingHeaderView extends View{
+
+        CountingHeaderView(Context context){
+            super(context);
+        }
+
+        @Override
+        public void setLayoutParams(ViewGroup.LayoutParams params){
+            setLayoutParamsCount++;
+            super.setLayoutParams(params);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec){
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), HEADER_HEIGHT);
+        }
+    }
+}
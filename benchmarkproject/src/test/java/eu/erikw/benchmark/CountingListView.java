@@ -0,0 +1,31 @@
+package eu.erikw.benchmark;
+
+import android.content.Context;
+
+import eu.erikw.PullToRefreshListView;
+
+/**
+ * A PullToRefreshListView that counts its layouts.
+ */
+class CountingListView extends PullToRefreshListView{
+
+    private int layoutCount;
+
+    CountingListView(Context context){
+        super(context);
+    }
+
+    void resetCounts(){
+        layoutCount = 0;
+    }
+
+    int getLayoutCount(){
+        return layoutCount;
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b){
+        layoutCount++;
+        super.onLayout(changed, l, t, r, b);
+    }
+}
@@ -0,0 +1,393 @@
+package eu.erikw.benchmark;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.ArrayAdapter;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.erikw.PullToRefreshListView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays recorded touch traces against a PullToRefreshListView under Robolectric and
+ * reports, per trace, the layouts of the list, the setLayoutParams() calls on the header,
+ * the header state transitions and the bytes allocated on the UI thread.
+ * <p/>
+ * Robolectric's scheduler stands in for the clock: frames are 16ms apart and every run
+ * of a trace sees the same sequence of events, so the counts are exact and comparable
+ * between commits. Allocations depend on the JVM and are only compared with slack.
+ * <p/>
+ * The results are written to build/gesture-replay/results.csv. If baseline.csv exists
+ * in the module directory (the same format, e.g. a results.csv of an earlier commit),
+ * a trace that does more work than its baseline fails the run.
+ * <p/>
+ * steadyStateCycleDoesNotAllocate() needs no baseline: once warmed up, a full drag, flip,
+ * refresh, complete and bounce cycle must not allocate at all in the list itself.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class GestureReplayBenchmark{
+
+    private static final int FRAME_MILLIS   = 16;
+    private static final int SETTLE_MILLIS  = 2000;
+    private static final int REFRESH_MILLIS = 500;
+    private static final int ITEM_COUNT     = 50;
+    private static final int WIDTH          = 480;
+    private static final int HEIGHT         = 800;
+    private static final int WARM_UP_CYCLES = 3;
+    private static final int DRAG_STEP      = 10;
+
+    /**
+     * Allocations may grow this much (relative) over the baseline before the run fails.
+     */
+    private static final double ALLOCATION_SLACK = 0.10;
+
+    private static final String HEADER = "trace,layouts,set_layout_params,state_transitions,allocated_bytes";
+
+    private static final File RESULTS  = new File("build/gesture-replay/results.csv");
+    private static final File BASELINE = new File("baseline.csv");
+
+    private static final List<String> results = new ArrayList<String>();
+
+    @Test
+    public void slowPull() throws IOException{
+        replay("slow_pull");
+    }
+
+    @Test
+    public void fastFling() throws IOException{
+        replay("fast_fling");
+    }
+
+    @Test
+    public void pullCancel() throws IOException{
+        replay("pull_cancel");
+    }
+
+    @Test
+    public void pullDuringBounce() throws IOException{
+        replay("pull_during_bounce");
+    }
+
+    /**
+     * Measures only the calls into the list: touch events, computeScroll() and
+     * onRefreshComplete(). Obtaining the MotionEvents, layout and draw, and Robolectric's
+     * scheduler (which also runs the header frames the list posts) are framework or test
+     * work and happen outside of the measured windows.
+     */
+    @Test
+    public void steadyStateCycleDoesNotAllocate(){
+        assumeTrue(allocatedBytes() != -1);
+
+        Activity activity = Robolectric.buildActivity(Activity.class).create().start().resume().get();
+        CountingListView listView = new CountingListView(activity);
+        listView.setHeaderRenderer(new CountingHeaderRenderer());
+        listView.setAdapter(new ArrayAdapter<String>(activity, android.R.layout.simple_list_item_1, createItems()));
+        listView.setOnRefreshListener(new PullToRefreshListView.OnRefreshListener(){
+
+            @Override
+            public void onRefresh(){
+                // Completed by the cycle itself, posting would allocate in the scheduler
+            }
+        });
+        activity.setContentView(listView);
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        frame(listView, canvas, true);
+
+        for(int i = 0; i < WARM_UP_CYCLES; i++){
+            cycle(listView, canvas);
+        }
+
+        // The cost of measuring an empty window, subtracted per window
+        long before = allocatedBytes();
+        long overhead = allocatedBytes() - before;
+
+        long[] measured = cycle(listView, canvas);
+        bitmap.recycle();
+
+        assertEquals("bytes allocated by the list in a steady-state cycle", 0, measured[0] - measured[1] * overhead);
+    }
+
+    /**
+     * Drags the header past the release point, releases, completes the refresh and lets
+     * the header bounce back.
+     *
+     * @return The bytes allocated in the measured windows and the number of windows
+     */
+    private static long[] cycle(CountingListView listView, Canvas canvas){
+        int pullDistance = CountingHeaderRenderer.HEADER_HEIGHT * 3;
+        int moves = pullDistance / DRAG_STEP;
+
+        long downTime = SystemClock.uptimeMillis();
+        MotionEvent[] events = new MotionEvent[moves + 2];
+        events[0] = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, WIDTH / 2, 0, 0);
+        for(int i = 1; i <= moves; i++){
+            events[i] = MotionEvent.obtain(downTime, downTime + i * FRAME_MILLIS, MotionEvent.ACTION_MOVE, WIDTH / 2, i * DRAG_STEP, 0);
+        }
+        events[moves + 1] = MotionEvent.obtain(downTime, downTime + (moves + 1) * FRAME_MILLIS, MotionEvent.ACTION_UP,
+                WIDTH / 2, moves * DRAG_STEP, 0);
+
+        long allocated = 0;
+        long windows = 0;
+        for(MotionEvent event : events){
+            long before = allocatedBytes();
+            listView.dispatchTouchEvent(event);
+            allocated += allocatedBytes() - before;
+            windows++;
+
+            allocated += measuredFrame(listView, canvas);
+            windows++;
+        }
+        assertTrue("the pull did not start a refresh", listView.isRefreshing());
+
+        for(int settled = 0; settled < SETTLE_MILLIS; settled += FRAME_MILLIS){
+            allocated += measuredFrame(listView, canvas);
+            windows++;
+        }
+
+        long before = allocatedBytes();
+        listView.onRefreshComplete();
+        allocated += allocatedBytes() - before;
+        windows++;
+
+        for(int settled = 0; settled < SETTLE_MILLIS; settled += FRAME_MILLIS){
+            allocated += measuredFrame(listView, canvas);
+            windows++;
+        }
+
+        for(MotionEvent event : events){
+            event.recycle();
+        }
+
+        return new long[]{allocated, windows};
+    }
+
+    /**
+     * Runs one frame and measures computeScroll(), where the list moves the header.
+     *
+     * @return The bytes allocated in computeScroll()
+     */
+    private static long measuredFrame(View view, Canvas canvas){
+        Robolectric.getUiThreadScheduler().advanceBy(FRAME_MILLIS);
+
+        long before = allocatedBytes();
+        view.computeScroll();
+        long allocated = allocatedBytes() - before;
+
+        render(view, canvas, false);
+        return allocated;
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException{
+        File dir = RESULTS.getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Could not create " + dir);
+        }
+
+        PrintWriter writer = new PrintWriter(new FileWriter(RESULTS));
+        try{
+            writer.println(HEADER);
+            for(String result : results){
+                writer.println(result);
+            }
+        }finally{
+            writer.close();
+        }
+    }
+
+    private void replay(String name) throws IOException{
+        GestureTrace trace = GestureTrace.load(name);
+
+        Activity activity = Robolectric.buildActivity(Activity.class).create().start().resume().get();
+        final CountingListView listView = new CountingListView(activity);
+        CountingHeaderRenderer renderer = new CountingHeaderRenderer();
+        listView.setHeaderRenderer(renderer);
+
+        listView.setAdapter(new ArrayAdapter<String>(activity, android.R.layout.simple_list_item_1, createItems()));
+        listView.setOnRefreshListener(new PullToRefreshListView.OnRefreshListener(){
+
+            @Override
+            public void onRefresh(){
+                listView.postDelayed(new Runnable(){
+
+                    @Override
+                    public void run(){
+                        listView.onRefreshComplete();
+                    }
+                }, REFRESH_MILLIS);
+            }
+        });
+        activity.setContentView(listView);
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        frame(listView, canvas, true);
+
+        renderer.resetCounts();
+        listView.resetCounts();
+
+        long allocatedBefore = allocatedBytes();
+        long downTime = SystemClock.uptimeMillis();
+        long elapsed = 0;
+        for(GestureTrace.Event event : trace.events){
+            while(elapsed + FRAME_MILLIS <= event.time){
+                elapsed += FRAME_MILLIS;
+                Robolectric.getUiThreadScheduler().advanceBy(FRAME_MILLIS);
+                frame(listView, canvas, false);
+            }
+
+            long eventTime = SystemClock.uptimeMillis();
+            if(event.action == MotionEvent.ACTION_DOWN){
+                downTime = eventTime;
+            }
+            MotionEvent motionEvent = MotionEvent.obtain(downTime, eventTime, event.action, WIDTH / 2, event.y, 0);
+            listView.dispatchTouchEvent(motionEvent);
+            motionEvent.recycle();
+        }
+
+        for(int settled = 0; settled < SETTLE_MILLIS; settled += FRAME_MILLIS){
+            Robolectric.getUiThreadScheduler().advanceBy(FRAME_MILLIS);
+            frame(listView, canvas, false);
+        }
+        long allocatedAfter = allocatedBytes();
+
+        long allocated = allocatedBefore == -1 ? -1 : allocatedAfter - allocatedBefore;
+        String result = name + "," + listView.getLayoutCount() + "," + renderer.getSetLayoutParamsCount() + ","
+                + renderer.getStateTransitionCount() + "," + allocated;
+        results.add(result);
+
+        bitmap.recycle();
+        checkBaseline(name, new long[]{listView.getLayoutCount(), renderer.getSetLayoutParamsCount(),
+                renderer.getStateTransitionCount(), allocated});
+    }
+
+    private static List<String> createItems(){
+        List<String> items = new ArrayList<String>();
+        for(int i = 0; i < ITEM_COUNT; i++){
+            items.add("Item " + i);
+        }
+
+        return items;
+    }
+
+    /**
+     * What the view system would do for one vsync: animations, layout if requested, draw.
+     */
+    private static void frame(View view, Canvas canvas, boolean force){
+        view.computeScroll();
+        render(view, canvas, force);
+    }
+
+    /**
+     * Layout if requested, and draw.
+     */
+    private static void render(View view, Canvas canvas, boolean force){
+        if(force || view.isLayoutRequested()){
+            view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            view.layout(0, 0, WIDTH, HEIGHT);
+        }
+        view.draw(canvas);
+    }
+
+    /**
+     * @return The bytes allocated by this thread so far, or -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes(){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()){
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+
+        return -1;
+    }
+
+    private static void checkBaseline(String name, long[] values) throws IOException{
+        long[] baseline = readBaseline().get(name);
+        if(baseline == null){
+            return;
+        }
+
+        String[] columns = HEADER.split(",");
+        StringBuilder regressions = new StringBuilder();
+
+        // The counts are deterministic, any increase is a regression
+        for(int i = 0; i < 3; i++){
+            if(values[i] > baseline[i]){
+                regressions.append("\n  ").append(columns[i + 1]).append(": ").append(baseline[i]).append(" -> ").append(values[i]);
+            }
+        }
+
+        int allocations = 3;
+        if(values[allocations] != -1 && baseline[allocations] != -1
+                && values[allocations] > baseline[allocations] * (1 + ALLOCATION_SLACK)){
+            regressions.append("\n  ").append(columns[allocations + 1]).append(": ").append(baseline[allocations])
+                    .append(" -> ").append(values[allocations]);
+        }
+
+        if(regressions.length() > 0){
+            fail(name + " regressed against " + BASELINE + ":" + regressions);
+        }
+    }
+
+    private static Map<String, long[]> readBaseline() throws IOException{
+        Map<String, long[]> baseline = new HashMap<String, long[]>();
+        if(!BASELINE.isFile()){
+            return baseline;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(BASELINE));
+        try{
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith(HEADER)){
+                    continue;
+                }
+
+                String[] fields = line.split(",");
+                long[] values = new long[fields.length - 1];
+                for(int i = 0; i < values.length; i++){
+                    values[i] = Long.parseLong(fields[i + 1].trim());
+                }
+                baseline.put(fields[0], values);
+            }
+        }finally{
+            reader.close();
+        }
+
+        return baseline;
+    }
+}
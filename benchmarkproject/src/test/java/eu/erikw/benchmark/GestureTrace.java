@@ -0,0 +1,77 @@
+package eu.erikw.benchmark;
+
+import android.view.MotionEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded touch gesture, read from src/test/resources/traces. Every line holds the
+ * time in milliseconds since the start of the trace, the action (DOWN, MOVE, UP or
+ * CANCEL) and the y coordinate in pixels. Lines starting with '#' are comments.
+ */
+class GestureTrace{
+
+    static class Event{
+
+        final long  time;
+        final int   action;
+        final float y;
+
+        Event(long time, int action, float y){
+            this.time = time;
+            this.action = action;
+            this.y = y;
+        }
+    }
+
+    final String      name;
+    final List<Event> events;
+
+    private GestureTrace(String name, List<Event> events){
+        this.name = name;
+        this.events = events;
+    }
+
+    static GestureTrace load(String name) throws IOException{
+        InputStream in = GestureTrace.class.getResourceAsStream("/traces/" + name + ".trace");
+        if(in == null){
+            throw new IOException("No trace named " + name);
+        }
+
+        List<Event> events = new ArrayList<Event>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try{
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#")){
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                if(fields.length != 3){
+                    throw new IOException(name + ": malformed line '" + line + "'");
+                }
+                events.add(new Event(Long.parseLong(fields[0]), parseAction(fields[1]), Float.parseFloat(fields[2])));
+            }
+        }finally{
+            reader.close();
+        }
+
+        return new GestureTrace(name, events);
+    }
+
+    private static int parseAction(String action) throws IOException{
+        if("DOWN".equals(action)) return MotionEvent.ACTION_DOWN;
+        if("MOVE".equals(action)) return MotionEvent.ACTION_MOVE;
+        if("UP".equals(action)) return MotionEvent.ACTION_UP;
+        if("CANCEL".equals(action)) return MotionEvent.ACTION_CANCEL;
+
+        throw new IOException("Unknown action " + action);
+    }
+}
@@ -0,0 +1,108 @@
+package eu.erikw.benchmark;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import eu.erikw.PagedAdapter;
+import eu.erikw.PullToRefreshListView;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A completed refresh loads the pages of a PagedAdapter again, so the list does not keep
+ * showing the pages it cached before the refresh.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class PagedAdapterRefreshTest{
+
+    private static final int WIDTH     = 480;
+    private static final int HEIGHT    = 800;
+    private static final int PAGE_SIZE = 20;
+
+    @Test
+    public void refreshReloadsCachedPages(){
+        Activity activity = Robolectric.buildActivity(Activity.class).create().start().resume().get();
+        PullToRefreshListView listView = new PullToRefreshListView(activity);
+        listView.setRefreshExecutor(new Executor(){
+
+            @Override
+            public void execute(Runnable runnable){
+                runnable.run();
+            }
+        });
+
+        VersionedAdapter adapter = new VersionedAdapter();
+        adapter.setCount(100);
+        listView.setAdapter(adapter);
+        activity.setContentView(listView);
+        layout(listView);
+
+        assertEquals(1, adapter.loads);
+        assertEquals("v1 item 0", adapter.getItem(0));
+
+        adapter.version = 2;
+        listView.setRefreshing();
+        listView.onRefreshComplete();
+        layout(listView);
+
+        assertEquals(2, adapter.loads);
+        assertEquals("v2 item 0", adapter.getItem(0));
+    }
+
+    private static void layout(View view){
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private static class VersionedAdapter extends PagedAdapter<String>{
+
+        volatile int version = 1;
+        int          loads;
+
+        VersionedAdapter(){
+            super(PAGE_SIZE, DEFAULT_MAX_PAGES);
+        }
+
+        @Override
+        protected List<String> loadPage(int page, int pageSize){
+            if(page == 0){
+                loads++;
+            }
+
+            List<String> items = new ArrayList<String>(pageSize);
+            for(int i = page * pageSize; i < (page + 1) * pageSize; i++){
+                items.add("v" + version + " item " + i);
+            }
+            return items;
+        }
+
+        @Override
+        public View newView(ViewGroup parent, int viewType){
+            return new TextView(parent.getContext());
+        }
+
+        @Override
+        public void bindView(View view, String item, int position){
+            ((TextView) view).setText(item);
+        }
+
+        @Override
+        public void bindPlaceholder(View view, int position){
+            ((TextView) view).setText(null);
+        }
+    }
+}
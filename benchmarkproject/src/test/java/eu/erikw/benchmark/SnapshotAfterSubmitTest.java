@@ -0,0 +1,119 @@
+package eu.erikw.benchmark;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import eu.erikw.PullToRefreshAdapter;
+import eu.erikw.PullToRefreshListView;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A refresh that completes while the items handed to submitItems(..) are still being
+ * diffed writes the new items to the snapshot, not the ones shown before.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(emulateSdk = 18)
+public class SnapshotAfterSubmitTest{
+
+    private static final String SNAPSHOT = "snapshot-after-submit-test";
+
+    @Test
+    public void delayedSubmitIsRestored(){
+        DeferredExecutor executor = new DeferredExecutor();
+
+        Activity activity = Robolectric.buildActivity(Activity.class).create().start().resume().get();
+        PullToRefreshListView listView = createListView(activity, executor);
+        StringAdapter adapter = new StringAdapter();
+        listView.setAdapter(adapter);
+        activity.setContentView(listView);
+        adapter.setItems(Arrays.asList("old 1", "old 2"));
+
+        List<String> newItems = Arrays.asList("new 1", "new 2", "new 3");
+        listView.setRefreshing();
+        adapter.submitItems(newItems);
+        listView.onRefreshComplete();
+
+        // Runs the diff, then the snapshot write it leads to
+        executor.runAll();
+        assertEquals(newItems, adapter.getItems());
+
+        Activity restoring = Robolectric.buildActivity(Activity.class).create().start().resume().get();
+        PullToRefreshListView restoredView = createListView(restoring, executor);
+        StringAdapter restoredAdapter = new StringAdapter();
+        restoredView.setAdapter(restoredAdapter);
+        restoring.setContentView(restoredView);
+
+        assertEquals(newItems, restoredAdapter.getItems());
+    }
+
+    private static PullToRefreshListView createListView(Activity activity, Executor executor){
+        PullToRefreshListView listView = new PullToRefreshListView(activity);
+        listView.setRefreshExecutor(executor);
+        listView.setSnapshotCodec(SNAPSHOT, new StringCodec());
+        return listView;
+    }
+
+    private static class DeferredExecutor implements Executor{
+
+        private final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable runnable){
+            tasks.add(runnable);
+        }
+
+        void runAll(){
+            while(!tasks.isEmpty()){
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class StringCodec implements PullToRefreshListView.SnapshotCodec<String>{
+
+        @Override
+        public void writeItem(String item, DataOutput out) throws IOException{
+            out.writeUTF(item);
+        }
+
+        @Override
+        public String readItem(DataInput in) throws IOException{
+            return in.readUTF();
+        }
+    }
+
+    private static class StringAdapter extends PullToRefreshAdapter<String>{
+
+        @Override
+        public long getStableId(String item){
+            return Long.parseLong(item.substring(item.indexOf(' ') + 1));
+        }
+
+        @Override
+        public View newView(ViewGroup parent, int viewType){
+            return new TextView(parent.getContext());
+        }
+
+        @Override
+        public void bindView(View view, String item, int position){
+            ((TextView) view).setText(item);
+        }
+    }
+}
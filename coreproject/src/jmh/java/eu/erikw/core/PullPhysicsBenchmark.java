@@ -0,0 +1,62 @@
+package eu.erikw.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Throughput of the per-sample pull math, over a recorded-like sequence of finger
+ * positions (mostly down, with some jitter back up).
+ */
+@State(Scope.Thread)
+public class PullPhysicsBenchmark{
+
+    private static final int HEADER_HEIGHT = 120;
+
+    private PullPhysics physics;
+    private float[]     samples;
+
+    @Setup
+    public void setUp(){
+        physics = new PullPhysics();
+
+        Random random = new Random(42);
+        samples = new float[256];
+        float y = 100;
+        for(int i = 0; i < samples.length; i++){
+            y += random.nextFloat() * 12 - 2;
+            samples[i] = y;
+        }
+    }
+
+    @Benchmark
+    public float trackGesture(){
+        float startY = samples[0];
+        float previousY = startY;
+        float padding = -HEADER_HEIGHT;
+
+        for(float y : samples){
+            if(!physics.isPulling(startY, y)){
+                continue;
+            }
+
+            padding = physics.pull(padding, y - previousY, HEADER_HEIGHT);
+            previousY = y;
+        }
+
+        return padding;
+    }
+
+    @Benchmark
+    public float progress(){
+        float sum = 0;
+        for(int padding = -HEADER_HEIGHT; padding < HEADER_HEIGHT; padding++){
+            sum += PullPhysics.progress(padding, HEADER_HEIGHT);
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,64 @@
+package eu.erikw.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of the state transitions of a complete pull: dragging past the threshold
+ * and back, releasing, refreshing and finishing.
+ */
+@State(Scope.Thread)
+public class RefreshStateMachineBenchmark{
+
+    private static final int HEADER_HEIGHT = 120;
+
+    private RefreshStateMachine machine;
+    private int[]               paddings;
+
+    @Setup
+    public void setUp(){
+        machine = new RefreshStateMachine();
+
+        // A drag from hidden to well past the threshold, in steps of a few pixels
+        paddings = new int[64];
+        for(int i = 0; i < paddings.length; i++){
+            paddings[i] = -HEADER_HEIGHT + i * 4;
+        }
+    }
+
+    @Benchmark
+    public int pull(){
+        int changes = 0;
+        for(int padding : paddings){
+            if(machine.onPull(padding)) changes++;
+        }
+        for(int i = paddings.length - 1; i >= 0; i--){
+            if(machine.onPull(paddings[i])) changes++;
+        }
+
+        return changes;
+    }
+
+    @Benchmark
+    public int pullReleaseRefresh(){
+        int changes = 0;
+        if(machine.onPull(HEADER_HEIGHT)) changes++;
+        if(machine.onRelease()) changes++;
+        if(machine.onPull(-HEADER_HEIGHT)) changes++;
+        if(machine.finishRefresh()) changes++;
+
+        return changes + machine.getRestingPadding(HEADER_HEIGHT);
+    }
+
+    @Benchmark
+    public int programmaticRefresh(){
+        int changes = 0;
+        if(machine.startRefresh()) changes++;
+        if(machine.startRefresh()) changes++;
+        if(machine.finishRefresh()) changes++;
+
+        return changes;
+    }
+}
@@ -0,0 +1,23 @@
+package eu.erikw.core;
+
+/**
+ * A source of the current time, so time based logic can be tested with a fake one.
+ */
+public interface Clock{
+
+    /**
+     * The wall clock, System.currentTimeMillis().
+     */
+    public static final Clock SYSTEM = new Clock(){
+
+        @Override
+        public long currentTimeMillis(){
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * @return The current time in milliseconds
+     */
+    public long currentTimeMillis();
+}
@@ -0,0 +1,80 @@
+package eu.erikw.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Formats the 'last updated' text of the header and keeps the result for as long as
+ * it would not change: refreshes that complete within the same minute (or second,
+ * if the date format shows seconds) get the same String back without allocating.
+ */
+public class LastUpdatedFormatter{
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+
+    private final Date date = new Date();
+
+    private String           template;
+    private SimpleDateFormat dateFormat;
+    private long             resolution;
+    private long             formattedBucket;
+    private String           formatted;
+
+    /**
+     * @param template   The text with a '%1$s' for the formatted date
+     * @param dateFormat The format of the date
+     */
+    public LastUpdatedFormatter(String template, SimpleDateFormat dateFormat){
+        this.template = template;
+        setDateFormat(dateFormat);
+    }
+
+    public void setTemplate(String template){
+        this.template = template;
+        formatted = null;
+    }
+
+    public void setDateFormat(SimpleDateFormat dateFormat){
+        this.dateFormat = dateFormat;
+        resolution = getResolution(dateFormat.toPattern());
+        formatted = null;
+    }
+
+    /**
+     * @param time The time of the last update in milliseconds since the epoch
+     * @return The text to show
+     */
+    public String format(long time){
+        long bucket = time / resolution;
+        if(formatted == null || bucket != formattedBucket){
+            date.setTime(time);
+            formatted = String.format(template, dateFormat.format(date));
+            formattedBucket = bucket;
+        }
+
+        return formatted;
+    }
+
+    /**
+     * @return The time span in milliseconds within which the formatted date cannot change.
+     * Coarser fields than minutes are not taken into account, they depend on the time zone.
+     */
+    static long getResolution(String pattern){
+        boolean quoted = false;
+        long resolution = MINUTE_MILLIS;
+
+        for(int i = 0; i < pattern.length(); i++){
+            char c = pattern.charAt(i);
+            if(c == '\''){
+                quoted = !quoted;
+            }else if(!quoted && c == 'S'){
+                return 1;
+            }else if(!quoted && c == 's'){
+                resolution = SECOND_MILLIS;
+            }
+        }
+
+        return resolution;
+    }
+}
@@ -0,0 +1,79 @@
+package eu.erikw.core;
+
+/**
+ * The math of dragging the header: how far a finger movement moves it, when a touch
+ * counts as a pull and how far the header has been revealed. Nothing here allocates,
+ * it runs for every touch sample.
+ */
+public class PullPhysics{
+
+    public static final float DEFAULT_RESISTANCE    = 1.7f;
+    public static final int   DEFAULT_IDLE_DISTANCE = 5;
+
+    private final float resistance;
+    private final int   idleDistance;
+
+    public PullPhysics(){
+        this(DEFAULT_RESISTANCE, DEFAULT_IDLE_DISTANCE);
+    }
+
+    /**
+     * @param resistance   Pulling the header down moves it this many times less than the finger, at least 1
+     * @param idleDistance The distance in pixels a finger may move before it starts pulling
+     */
+    public PullPhysics(float resistance, int idleDistance){
+        if(resistance < 1){
+            throw new IllegalArgumentException("resistance must be at least 1, was " + resistance);
+        }
+        if(idleDistance < 0){
+            throw new IllegalArgumentException("idleDistance must not be negative, was " + idleDistance);
+        }
+
+        this.resistance = resistance;
+        this.idleDistance = idleDistance;
+    }
+
+    public float getResistance(){
+        return resistance;
+    }
+
+    public int getIdleDistance(){
+        return idleDistance;
+    }
+
+    /**
+     * @param startY The y coordinate where the finger went down
+     * @param y      The current y coordinate
+     * @return True if the finger moved far enough from where it went down to pull
+     */
+    public boolean isPulling(float startY, float y){
+        return Math.abs(startY - y) > idleDistance;
+    }
+
+    /**
+     * Applies a finger movement to the header padding. Pulling down is resisted, pushing
+     * up is not, and the header never goes further up than fully hidden.
+     *
+     * @param headerPadding The current header padding
+     * @param dy            The vertical finger movement since the previous sample
+     * @param headerHeight  The height of the header
+     * @return The new header padding
+     */
+    public float pull(float headerPadding, float dy, int headerHeight){
+        if(dy > 0){
+            dy /= resistance;
+        }
+
+        return Math.max(headerPadding + dy, -headerHeight);
+    }
+
+    /**
+     * @param headerPadding The header padding
+     * @param headerHeight  The height of the header, larger than 0
+     * @return How far the header is revealed: 0 when hidden, 1 when fully shown and
+     * beyond 1 when pulled further
+     */
+    public static float progress(int headerPadding, int headerHeight){
+        return (headerPadding + headerHeight) / (float) headerHeight;
+    }
+}
@@ -0,0 +1,220 @@
+package eu.erikw.core;
+
+import java.util.Random;
+
+/**
+ * Decides whether a requested refresh should actually run, based on when the last ones
+ * started, succeeded and failed:
+ * <ul>
+ * <li>Within the freshness window after a successful refresh, nothing is refreshed. A
+ * pull is skipped, or served from cache if setServeFreshPullsFromCache(true).</li>
+ * <li>Refreshes start at least the minimum interval apart.</li>
+ * <li>After a failed refresh, no refresh starts until the backoff has passed. The
+ * backoff doubles with every consecutive failure, up to its maximum.</li>
+ * <li>getPeriodicDelay() tells when the next periodic refresh is due, with jitter so
+ * that many clients do not refresh in step.</li>
+ * </ul>
+ * All times come from the Clock, which is the wall clock unless another one is given.
+ * Instances are not thread safe, they are meant to be used from the UI thread.
+ */
+public class RefreshPolicy{
+
+    public static enum Decision{
+        /**
+         * Run the refresh.
+         */
+        REFRESH,
+
+        /**
+         * Do not refresh.
+         */
+        SKIP,
+
+        /**
+         * Do not refresh, but show the pull as completed with the data that is shown.
+         */
+        SERVE_FROM_CACHE
+    }
+
+    private final Clock  clock;
+    private final Random random;
+
+    private long    minInterval;
+    private long    freshnessWindow;
+    private long    initialBackoff = 5 * 1000;
+    private long    maxBackoff = 5 * 60 * 1000;
+    private long    periodicInterval = -1;
+    private float   periodicJitter;
+    private boolean serveFreshPullsFromCache;
+
+    private boolean inFlight;
+    private long    lastStart = -1;
+    private long    lastSuccess = -1;
+    private int     consecutiveFailures;
+    private long    backoffUntil;
+
+    public RefreshPolicy(){
+        this(Clock.SYSTEM, new Random());
+    }
+
+    /**
+     * @param clock  The source of the current time
+     * @param random The source of the periodic jitter
+     */
+    public RefreshPolicy(Clock clock, Random random){
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Default is 0. Refreshes start at least this far apart.
+     *
+     * @param minIntervalMillis The minimum interval in milliseconds
+     */
+    public void setMinInterval(long minIntervalMillis){
+        this.minInterval = minIntervalMillis;
+    }
+
+    /**
+     * Default is 0. No refresh starts within this time after a successful one.
+     *
+     * @param freshnessWindowMillis The freshness window in milliseconds
+     */
+    public void setFreshnessWindow(long freshnessWindowMillis){
+        this.freshnessWindow = freshnessWindowMillis;
+    }
+
+    /**
+     * Default is 5 seconds, up to 5 minutes. The backoff after the first failure; it
+     * doubles with every further consecutive failure, up to the maximum.
+     *
+     * @param initialBackoffMillis The backoff after one failure in milliseconds, 0 for none
+     * @param maxBackoffMillis     The maximum backoff in milliseconds
+     */
+    public void setBackoff(long initialBackoffMillis, long maxBackoffMillis){
+        this.initialBackoff = initialBackoffMillis;
+        this.maxBackoff = maxBackoffMillis;
+    }
+
+    /**
+     * Default is off. Refresh periodically while the list is visible.
+     *
+     * @param intervalMillis The interval after the last successful refresh in milliseconds, -1 for off
+     * @param jitter         The fraction of the interval by which it is randomly made shorter or longer, 0 to 1
+     */
+    public void setPeriodicRefresh(long intervalMillis, float jitter){
+        if(jitter < 0 || jitter > 1){
+            throw new IllegalArgumentException("jitter must be between 0 and 1, was " + jitter);
+        }
+
+        this.periodicInterval = intervalMillis;
+        this.periodicJitter = jitter;
+    }
+
+    /**
+     * Default is false. Whether a pull within the freshness window is shown as a
+     * completed refresh (true) or not refreshed at all (false).
+     */
+    public void setServeFreshPullsFromCache(boolean serveFreshPullsFromCache){
+        this.serveFreshPullsFromCache = serveFreshPullsFromCache;
+    }
+
+    /**
+     * Sets the time of the last successful refresh, for data that was restored rather
+     * than refreshed in this run.
+     *
+     * @param time The time in milliseconds, on the same clock as this policy
+     */
+    public void setLastSuccess(long time){
+        lastSuccess = time;
+    }
+
+    /**
+     * @param pull True if the refresh was requested by pulling the list
+     * @return What to do with the request
+     */
+    public Decision decide(boolean pull){
+        long now = clock.currentTimeMillis();
+
+        if(lastSuccess != -1 && now - lastSuccess < freshnessWindow){
+            return pull && serveFreshPullsFromCache ? Decision.SERVE_FROM_CACHE : Decision.SKIP;
+        }
+        if(inFlight || (lastStart != -1 && now - lastStart < minInterval) || now < backoffUntil){
+            return Decision.SKIP;
+        }
+
+        return Decision.REFRESH;
+    }
+
+    public void onRefreshStarted(){
+        inFlight = true;
+        lastStart = clock.currentTimeMillis();
+    }
+
+    public void onRefreshSucceeded(){
+        if(!inFlight){
+            return;
+        }
+
+        inFlight = false;
+        lastSuccess = clock.currentTimeMillis();
+        consecutiveFailures = 0;
+        backoffUntil = 0;
+    }
+
+    public void onRefreshFailed(){
+        if(!inFlight){
+            return;
+        }
+
+        inFlight = false;
+        consecutiveFailures++;
+        backoffUntil = clock.currentTimeMillis() + getBackoff();
+    }
+
+    /**
+     * The refresh was abandoned, for example because the list went away. Neither a
+     * success nor a failure.
+     */
+    public void onRefreshCancelled(){
+        inFlight = false;
+    }
+
+    /**
+     * @return The current backoff in milliseconds, 0 if the last refresh did not fail
+     */
+    public long getBackoff(){
+        if(consecutiveFailures == 0 || initialBackoff <= 0){
+            return 0;
+        }
+
+        // Doubled per failure; the shift is capped so it cannot overflow
+        long backoff = initialBackoff << Math.min(consecutiveFailures - 1, 30);
+        return backoff < 0 ? maxBackoff : Math.min(backoff, maxBackoff);
+    }
+
+    /**
+     * @return The delay in milliseconds until the next periodic refresh is due, or -1 if
+     * periodic refresh is off. Every call draws a new jitter.
+     */
+    public long getPeriodicDelay(){
+        if(periodicInterval < 0){
+            return -1;
+        }
+
+        long now = clock.currentTimeMillis();
+        long jitter = (long) (periodicInterval * periodicJitter * (2 * random.nextFloat() - 1));
+        long due = (lastSuccess == -1 ? now : lastSuccess) + periodicInterval + jitter;
+
+        // Never due at a time decide(..) would refuse
+        due = Math.max(due, backoffUntil);
+        if(lastSuccess != -1){
+            due = Math.max(due, lastSuccess + freshnessWindow);
+        }
+        if(lastStart != -1){
+            due = Math.max(due, lastStart + minInterval);
+        }
+
+        return Math.max(0, due - now);
+    }
+}
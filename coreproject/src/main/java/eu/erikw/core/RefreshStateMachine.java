@@ -0,0 +1,106 @@
+package eu.erikw.core;
+
+/**
+ * The states of a pull to refresh header and the transitions between them, without
+ * anything Android in it. The view feeds it the header padding while the header is
+ * dragged and tells it when the finger went up or a refresh started or ended; it
+ * answers which state the header is in and where the header rests.
+ * <p/>
+ * The invariants, checked by RefreshStateMachineFuzzTest:
+ * <ul>
+ * <li>'Refreshing' is only entered by a release in 'Release to refresh' or by
+ * startRefresh(), and only left by finishRefresh().</li>
+ * <li>Dragging never changes the state while refreshing.</li>
+ * <li>Otherwise, a header pulled past its full height is in 'Release to refresh' and
+ * one above it in 'Pull to refresh'. At exactly its full height the state is kept.</li>
+ * </ul>
+ * Instances are not thread safe, they are meant to be used from the UI thread.
+ */
+public class RefreshStateMachine{
+
+    public static enum State{
+        PULL_TO_REFRESH,
+        RELEASE_TO_REFRESH,
+        REFRESHING
+    }
+
+    private State state = State.PULL_TO_REFRESH;
+
+    public State getState(){
+        return state;
+    }
+
+    public boolean isRefreshing(){
+        return state == State.REFRESHING;
+    }
+
+    /**
+     * The header was dragged.
+     *
+     * @param headerPadding The new header padding, 0 when the header is exactly fully shown
+     * @return True if the state changed
+     */
+    public boolean onPull(int headerPadding){
+        if(state == State.PULL_TO_REFRESH && headerPadding > 0){
+            state = State.RELEASE_TO_REFRESH;
+            return true;
+        }else if(state == State.RELEASE_TO_REFRESH && headerPadding < 0){
+            state = State.PULL_TO_REFRESH;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The finger went up.
+     *
+     * @return True if this started a refresh
+     */
+    public boolean onRelease(){
+        if(state == State.RELEASE_TO_REFRESH){
+            state = State.REFRESHING;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Starts a refresh that was not triggered by a pull.
+     *
+     * @return True if the state changed, false if a refresh was already running
+     */
+    public boolean startRefresh(){
+        if(state == State.REFRESHING){
+            return false;
+        }
+
+        state = State.REFRESHING;
+        return true;
+    }
+
+    /**
+     * Ends a refresh (or abandons a pull, for example because the header settled or was
+     * detached) and goes back to 'Pull to refresh'.
+     *
+     * @return True if the state changed
+     */
+    public boolean finishRefresh(){
+        if(state == State.PULL_TO_REFRESH){
+            return false;
+        }
+
+        state = State.PULL_TO_REFRESH;
+        return true;
+    }
+
+    /**
+     * @param headerHeight The height of the header
+     * @return The padding the header settles at in the current state: fully shown while
+     * refreshing, hidden otherwise
+     */
+    public int getRestingPadding(int headerHeight){
+        return state == State.REFRESHING ? 0 : -headerHeight;
+    }
+}
@@ -0,0 +1,166 @@
+package eu.erikw.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import eu.erikw.core.RefreshPolicy.Decision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshPolicyTest{
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+
+    private final FakeClock     clock  = new FakeClock();
+    private final RefreshPolicy policy = new RefreshPolicy(clock, new Random(7));
+
+    @Test
+    public void refreshesByDefault(){
+        assertEquals(Decision.REFRESH, policy.decide(true));
+        assertEquals(Decision.REFRESH, policy.decide(false));
+    }
+
+    @Test
+    public void skipsWhileInFlight(){
+        policy.onRefreshStarted();
+        assertEquals(Decision.SKIP, policy.decide(false));
+
+        policy.onRefreshSucceeded();
+        assertEquals(Decision.REFRESH, policy.decide(false));
+    }
+
+    @Test
+    public void enforcesMinimumInterval(){
+        policy.setMinInterval(30 * SECOND);
+        refresh(true);
+
+        clock.advance(29 * SECOND);
+        assertEquals(Decision.SKIP, policy.decide(false));
+        assertEquals(Decision.SKIP, policy.decide(true));
+
+        clock.advance(SECOND);
+        assertEquals(Decision.REFRESH, policy.decide(false));
+    }
+
+    @Test
+    public void freshPullsAreSkippedOrServedFromCache(){
+        policy.setFreshnessWindow(MINUTE);
+        refresh(true);
+
+        clock.advance(MINUTE - 1);
+        assertEquals(Decision.SKIP, policy.decide(true));
+
+        policy.setServeFreshPullsFromCache(true);
+        assertEquals(Decision.SERVE_FROM_CACHE, policy.decide(true));
+        assertEquals("only pulls are served from cache", Decision.SKIP, policy.decide(false));
+
+        clock.advance(1);
+        assertEquals(Decision.REFRESH, policy.decide(true));
+    }
+
+    @Test
+    public void restoredDataIsFresh(){
+        policy.setFreshnessWindow(MINUTE);
+        policy.setLastSuccess(clock.now - 10 * SECOND);
+        assertEquals(Decision.SKIP, policy.decide(false));
+
+        clock.advance(50 * SECOND);
+        assertEquals(Decision.REFRESH, policy.decide(false));
+    }
+
+    @Test
+    public void backsOffExponentiallyAfterFailures(){
+        policy.setBackoff(5 * SECOND, 30 * SECOND);
+
+        long[] expected = {5 * SECOND, 10 * SECOND, 20 * SECOND, 30 * SECOND, 30 * SECOND};
+        for(long backoff : expected){
+            refresh(false);
+            assertEquals(backoff, policy.getBackoff());
+
+            clock.advance(backoff - 1);
+            assertEquals(Decision.SKIP, policy.decide(true));
+            clock.advance(1);
+            assertEquals(Decision.REFRESH, policy.decide(true));
+        }
+
+        refresh(true);
+        assertEquals("a success resets the backoff", 0, policy.getBackoff());
+    }
+
+    @Test
+    public void backoffDoesNotOverflow(){
+        policy.setBackoff(SECOND, Long.MAX_VALUE);
+        for(int i = 0; i < 100; i++){
+            refresh(false);
+            assertTrue(policy.getBackoff() > 0);
+            clock.advance(policy.getBackoff());
+        }
+    }
+
+    @Test
+    public void cancelledRefreshesDoNotCount(){
+        policy.setBackoff(5 * SECOND, 30 * SECOND);
+        policy.onRefreshStarted();
+        policy.onRefreshCancelled();
+
+        assertEquals(0, policy.getBackoff());
+        assertEquals(Decision.REFRESH, policy.decide(false));
+    }
+
+    @Test
+    public void periodicDelayIsJitteredAroundTheInterval(){
+        assertEquals("off by default", -1, policy.getPeriodicDelay());
+
+        policy.setPeriodicRefresh(10 * MINUTE, 0.2f);
+        refresh(true);
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for(int i = 0; i < 1000; i++){
+            long delay = policy.getPeriodicDelay();
+            assertTrue("delay " + delay, delay >= 8 * MINUTE && delay <= 12 * MINUTE);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue("no jitter", max - min > 2 * MINUTE);
+
+        // Counted from the last success, never negative
+        clock.advance(20 * MINUTE);
+        assertEquals(0, policy.getPeriodicDelay());
+    }
+
+    @Test
+    public void periodicDelayWaitsForBackoff(){
+        policy.setPeriodicRefresh(MINUTE, 0);
+        policy.setBackoff(5 * MINUTE, 5 * MINUTE);
+        refresh(false);
+
+        assertEquals(5 * MINUTE, policy.getPeriodicDelay());
+    }
+
+    private void refresh(boolean success){
+        policy.onRefreshStarted();
+        if(success){
+            policy.onRefreshSucceeded();
+        }else{
+            policy.onRefreshFailed();
+        }
+    }
+
+    private static class FakeClock implements Clock{
+
+        long now = 1400000000000L;
+
+        void advance(long millis){
+            now += millis;
+        }
+
+        @Override
+        public long currentTimeMillis(){
+            return now;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package eu.erikw.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import eu.erikw.core.RefreshStateMachine.State;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives RefreshStateMachine and PullPhysics with random event sequences, the way a
+ * list would (drags, releases, programmatic refreshes, completions, settles), and
+ * checks the invariants after every step. The seeds are fixed, so a failure can be
+ * reproduced from the seed and step in its message.
+ */
+public class RefreshStateMachineFuzzTest{
+
+    private static final int SEEDS          = 200;
+    private static final int STEPS_PER_SEED = 5000;
+    private static final int HEADER_HEIGHT  = 120;
+
+    private static final int PULL     = 0;
+    private static final int RELEASE  = 1;
+    private static final int START    = 2;
+    private static final int FINISH   = 3;
+    private static final int EVENTS   = 4;
+
+    @Test
+    public void stateInvariantsHold(){
+        for(int seed = 0; seed < SEEDS; seed++){
+            fuzz(seed);
+        }
+    }
+
+    private void fuzz(long seed){
+        Random random = new Random(seed);
+        RefreshStateMachine machine = new RefreshStateMachine();
+        PullPhysics physics = new PullPhysics();
+
+        // The model follows the transition table on its own, it never reads the machine's state
+        State model = State.PULL_TO_REFRESH;
+        float padding = -HEADER_HEIGHT;
+        int refreshesStarted = 0;
+        int refreshesExpected = 0;
+
+        for(int step = 0; step < STEPS_PER_SEED; step++){
+            String where = "seed " + seed + ", step " + step;
+            State expected = model;
+            boolean expectedResult;
+
+            // Drags are the common case, weigh them accordingly
+            int event = random.nextInt(EVENTS * 3);
+            if(event >= EVENTS) event = PULL;
+
+            switch(event){
+                case PULL:
+                    float dy = (random.nextFloat() - 0.4f) * 200;
+                    float pulled = physics.pull(padding, dy, HEADER_HEIGHT);
+                    assertTrue(where + ": header above fully hidden", pulled >= -HEADER_HEIGHT);
+                    if(dy > 0){
+                        assertTrue(where + ": pulling down must be resisted", pulled - padding <= dy);
+                    }
+                    if(model != State.REFRESHING){
+                        padding = pulled;
+                    }
+
+                    // Beyond the full header height is 'Release', above it 'Pull'; 'Refreshing' ignores drags
+                    int rounded = Math.round(padding);
+                    if(model != State.REFRESHING && rounded > 0){
+                        expected = State.RELEASE_TO_REFRESH;
+                    }else if(model != State.REFRESHING && rounded < 0){
+                        expected = State.PULL_TO_REFRESH;
+                    }
+                    expectedResult = expected != model;
+                    assertEquals(where + ": onPull result", expectedResult, machine.onPull(rounded));
+                    break;
+
+                case RELEASE:
+                    // Only 'Release' refreshes, every other state ignores it
+                    if(model == State.RELEASE_TO_REFRESH){
+                        expected = State.REFRESHING;
+                    }
+                    expectedResult = expected != model;
+                    boolean released = machine.onRelease();
+                    assertEquals(where + ": onRelease result", expectedResult, released);
+                    if(released){
+                        refreshesStarted++;
+                    }
+                    break;
+
+                case START:
+                    // Any state but 'Refreshing' starts a refresh
+                    expected = State.REFRESHING;
+                    expectedResult = expected != model;
+                    boolean started = machine.startRefresh();
+                    assertEquals(where + ": startRefresh result", expectedResult, started);
+                    if(started){
+                        refreshesStarted++;
+                    }
+                    break;
+
+                case FINISH:
+                    // Every state goes back to 'Pull', which is a change unless it was there already
+                    expected = State.PULL_TO_REFRESH;
+                    expectedResult = expected != model;
+                    assertEquals(where + ": finishRefresh result", expectedResult, machine.finishRefresh());
+                    padding = -HEADER_HEIGHT;
+                    break;
+            }
+
+            if(expected == State.REFRESHING && model != State.REFRESHING){
+                refreshesExpected++;
+            }
+            model = expected;
+
+            assertEquals(where + ": state", model, machine.getState());
+            assertEquals(where + ": refreshes started", refreshesExpected, refreshesStarted);
+            assertEquals(where + ": resting padding", model == State.REFRESHING ? 0 : -HEADER_HEIGHT,
+                    machine.getRestingPadding(HEADER_HEIGHT));
+        }
+    }
+
+    @Test
+    public void refreshingIsOnlyLeftByFinish(){
+        RefreshStateMachine machine = new RefreshStateMachine();
+        assertTrue(machine.startRefresh());
+
+        assertFalse(machine.onPull(-HEADER_HEIGHT));
+        assertFalse(machine.onPull(HEADER_HEIGHT));
+        assertFalse(machine.onRelease());
+        assertFalse(machine.startRefresh());
+        assertEquals(State.REFRESHING, machine.getState());
+
+        assertTrue(machine.finishRefresh());
+        assertEquals(State.PULL_TO_REFRESH, machine.getState());
+    }
+
+    @Test
+    public void progressIsMonotonic(){
+        float previous = Float.NEGATIVE_INFINITY;
+        for(int padding = -HEADER_HEIGHT; padding <= HEADER_HEIGHT; padding++){
+            float progress = PullPhysics.progress(padding, HEADER_HEIGHT);
+            assertTrue(progress > previous);
+            previous = progress;
+        }
+
+        assertEquals(0f, PullPhysics.progress(-HEADER_HEIGHT, HEADER_HEIGHT), 0f);
+        assertEquals(1f, PullPhysics.progress(0, HEADER_HEIGHT), 0f);
+    }
+
+    @Test
+    public void idleDistanceIsNotAPull(){
+        PullPhysics physics = new PullPhysics();
+        assertFalse(physics.isPulling(100, 100 + PullPhysics.DEFAULT_IDLE_DISTANCE));
+        assertFalse(physics.isPulling(100, 100 - PullPhysics.DEFAULT_IDLE_DISTANCE));
+        assertTrue(physics.isPulling(100, 101 + PullPhysics.DEFAULT_IDLE_DISTANCE));
+    }
+}
@@ -0,0 +1,103 @@
+package eu.erikw.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the per-gesture work of the core the way the list does for a drag, flip,
+ * release, refresh and complete cycle, and checks that it does not allocate once
+ * warmed up. Needs a JVM that can report the bytes allocated by a thread.
+ */
+public class SteadyStateAllocationTest{
+
+    private static final int  HEADER_HEIGHT = 120;
+    private static final int  WARM_UP       = 20000;
+    private static final int  CYCLES        = 1000;
+    private static final long START_TIME    = 1400000000000L;
+
+    private final RefreshStateMachine  machine   = new RefreshStateMachine();
+    private final PullPhysics          physics   = new PullPhysics();
+    private final LastUpdatedFormatter formatter = new LastUpdatedFormatter("Updated: %1$s", new SimpleDateFormat("dd/MM HH:mm"));
+    private final float[]              samples   = new float[64];
+
+    private int checksum;
+
+    @Test
+    public void cycleDoesNotAllocate(){
+        com.sun.management.ThreadMXBean bean = getThreadMXBean();
+        assumeTrue(bean != null);
+
+        for(int i = 0; i < samples.length; i++){
+            samples[i] = 100 + i * 6;
+        }
+        long threadId = Thread.currentThread().getId();
+
+        for(int i = 0; i < WARM_UP; i++){
+            cycle(START_TIME + i % 1000);
+        }
+
+        // Called once up front, so the measurement does not count the first call's own overhead
+        bean.getThreadAllocatedBytes(threadId);
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < CYCLES; i++){
+            cycle(START_TIME + i % 1000);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals("bytes allocated by " + CYCLES + " cycles (checksum " + checksum + ")", 0, allocated);
+    }
+
+    @Test
+    public void formatterReusesTextWithinResolution(){
+        String text = formatter.format(START_TIME);
+        assertSame(text, formatter.format(START_TIME + 1));
+
+        LastUpdatedFormatter seconds = new LastUpdatedFormatter("%1$s", new SimpleDateFormat("HH:mm:ss"));
+        assertEquals(1000, LastUpdatedFormatter.getResolution("HH:mm:ss"));
+        assertEquals(1, LastUpdatedFormatter.getResolution("HH:mm:ss.SSS"));
+        assertEquals(60 * 1000, LastUpdatedFormatter.getResolution("HH:mm 'Sun'"));
+        assertSame(seconds.format(START_TIME), seconds.format(START_TIME + 999));
+    }
+
+    private void cycle(long now){
+        float startY = samples[0];
+        float previousY = startY;
+        float padding = -HEADER_HEIGHT;
+
+        // Drag down past the threshold (flip to 'Release to refresh') and a bit back
+        for(float y : samples){
+            if(physics.isPulling(startY, y)){
+                padding = physics.pull(padding, y - previousY, HEADER_HEIGHT);
+                previousY = y;
+                if(machine.onPull(Math.round(padding))) checksum++;
+                checksum += Math.round(PullPhysics.progress(Math.round(padding), HEADER_HEIGHT));
+            }
+        }
+
+        if(machine.onRelease()) checksum++;
+        checksum += machine.getRestingPadding(HEADER_HEIGHT);
+        if(machine.finishRefresh()) checksum++;
+        checksum += machine.getRestingPadding(HEADER_HEIGHT);
+        checksum += formatter.format(now).length();
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean(){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)){
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if(!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()){
+            return null;
+        }
+
+        return sunBean;
+    }
+}
@@ -0,0 +1,306 @@
+package eu.erikw;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.AnimationUtils;
+
+/**
+ * A HeaderRenderer that draws the arrow, the spinner and the texts of the header
+ * in a single view. There is no hierarchy to measure and lay out while pulling,
+ * and the text layouts are only built again when a text or the width changes.
+ * <p/>
+ * It mirrors the default look, but is not affected by the ptr_* styles. Use the
+ * setters to change the text color and sizes. Like the platform spinner, the spinner
+ * turns in steps, so the header is drawn again once per step instead of every frame.
+ */
+public class CanvasHeaderRenderer implements HeaderRenderer{
+
+    private static final int   SPINNER_ROTATION_DURATION = 1000;
+    private static final int   SPINNER_STEPS             = 12;
+    private static final int   SPINNER_FRAME_INTERVAL    = SPINNER_ROTATION_DURATION / SPINNER_STEPS;
+    private static final float SPINNER_SWEEP             = 270;
+
+    private int        textColor           = Color.BLACK;
+    private float      textSize            = 18;
+    private float      lastUpdatedTextSize = 14;
+    private HeaderView view;
+
+    /**
+     * Default is black.
+     *
+     * @param textColor The color of the texts, the spinner is drawn in the same color
+     */
+    public void setTextColor(int textColor){
+        this.textColor = textColor;
+        if(view != null){
+            view.applyTextStyle();
+        }
+    }
+
+    /**
+     * Default is 18sp for the label and 14sp for the last-updated text.
+     *
+     * @param textSize            The label text size in sp
+     * @param lastUpdatedTextSize The last-updated text size in sp
+     */
+    public void setTextSizes(float textSize, float lastUpdatedTextSize){
+        this.textSize = textSize;
+        this.lastUpdatedTextSize = lastUpdatedTextSize;
+        if(view != null){
+            view.applyTextStyle();
+        }
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container){
+        view = new HeaderView(inflater.getContext());
+        return view;
+    }
+
+    @Override
+    public void onPullProgress(float progress){
+        view.setArrowRotation(-180 * Math.max(0, Math.min(1, progress)));
+    }
+
+    @Override
+    public void onPullToRefresh(CharSequence text, boolean animate){
+        view.setRefreshing(false);
+        view.setText(text);
+    }
+
+    @Override
+    public void onReleaseToRefresh(CharSequence text, boolean animate){
+        view.setRefreshing(false);
+        view.setText(text);
+    }
+
+    @Override
+    public void onRefreshing(CharSequence text){
+        view.setRefreshing(true);
+        view.setText(text);
+    }
+
+    @Override
+    public void onLastUpdatedChanged(CharSequence lastUpdated){
+        view.setLastUpdated(lastUpdated);
+    }
+
+    @Override
+    public int getMeasureKey(){
+        int key = Float.floatToIntBits(textSize);
+        key = 31 * key + Float.floatToIntBits(lastUpdatedTextSize);
+        return 31 * key + (view.lastUpdated == null ? 0 : 1);
+    }
+
+    private class HeaderView extends View{
+
+        private final TextPaint textPaint        = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        private final TextPaint lastUpdatedPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint     spinnerPaint     = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final RectF     spinnerBounds    = new RectF();
+        private final Bitmap    arrow;
+        private final int       padding;
+        private final int       arrowMargin;
+        private final Runnable  spinnerFrameRunnable;
+
+        private CharSequence text;
+        private CharSequence lastUpdated;
+        private StaticLayout textLayout;
+        private StaticLayout lastUpdatedLayout;
+        private int          textWidth;
+        private boolean      refreshing;
+        private float        arrowRotation;
+        private boolean      spinnerFramePosted;
+
+        HeaderView(Context context){
+            super(context);
+
+            arrow = BitmapFactory.decodeResource(context.getResources(), R.drawable.ptr_pulltorefresh_arrow);
+            padding = dp(5);
+            arrowMargin = dp(25);
+
+            textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+            spinnerPaint.setStyle(Paint.Style.STROKE);
+            spinnerPaint.setStrokeCap(Paint.Cap.ROUND);
+            spinnerPaint.setStrokeWidth(dp(2));
+            applyTextStyle();
+
+            spinnerFrameRunnable = new Runnable(){
+
+                @Override
+                public void run(){
+                    spinnerFramePosted = false;
+                    invalidate();
+                }
+            };
+        }
+
+        private int dp(float dp){
+            return Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, getResources().getDisplayMetrics()));
+        }
+
+        void applyTextStyle(){
+            textPaint.setColor(textColor);
+            textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, textSize, getResources().getDisplayMetrics()));
+            lastUpdatedPaint.setColor(textColor);
+            lastUpdatedPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, lastUpdatedTextSize, getResources().getDisplayMetrics()));
+            spinnerPaint.setColor(textColor);
+
+            textLayout = null;
+            lastUpdatedLayout = null;
+            requestLayout();
+            invalidate();
+        }
+
+        void setText(CharSequence text){
+            if(TextUtils.equals(this.text, text)){
+                return;
+            }
+
+            this.text = text;
+            textLayout = null;
+            invalidate();
+        }
+
+        void setLastUpdated(CharSequence lastUpdated){
+            if(TextUtils.equals(this.lastUpdated, lastUpdated)){
+                return;
+            }
+
+            // Only showing or hiding the line changes the height
+            if((this.lastUpdated == null) != (lastUpdated == null)){
+                requestLayout();
+            }
+
+            this.lastUpdated = lastUpdated;
+            lastUpdatedLayout = null;
+            invalidate();
+        }
+
+        void setRefreshing(boolean refreshing){
+            if(this.refreshing != refreshing){
+                this.refreshing = refreshing;
+                if(!refreshing){
+                    cancelSpinnerFrame();
+                }
+                invalidate();
+            }
+        }
+
+        private void cancelSpinnerFrame(){
+            if(spinnerFramePosted){
+                spinnerFramePosted = false;
+                removeCallbacks(spinnerFrameRunnable);
+            }
+        }
+
+        @Override
+        protected void onDetachedFromWindow(){
+            cancelSpinnerFrame();
+            super.onDetachedFromWindow();
+        }
+
+        void setArrowRotation(float rotation){
+            if(rotation != arrowRotation){
+                arrowRotation = rotation;
+
+                // The header moves in the same frame, so this does not add a frame of its own
+                if(!refreshing){
+                    invalidate();
+                }
+            }
+        }
+
+        /**
+         * Builds the text layouts that were dropped, for the given width.
+         */
+        private void ensureTextLayouts(int width){
+            // The texts are centered between the arrow and the same space on the right
+            int available = Math.max(0, width - 2 * (padding + arrowMargin + arrow.getWidth()));
+            if(available != textWidth){
+                textWidth = available;
+                textLayout = null;
+                lastUpdatedLayout = null;
+            }
+
+            if(textLayout == null && text != null){
+                textLayout = new StaticLayout(text, textPaint, textWidth, Layout.Alignment.ALIGN_CENTER, 1, 0, false);
+            }
+            if(lastUpdatedLayout == null && lastUpdated != null){
+                lastUpdatedLayout = new StaticLayout(lastUpdated, lastUpdatedPaint, textWidth, Layout.Alignment.ALIGN_CENTER, 1, 0, false);
+            }
+        }
+
+        private int getTextHeight(){
+            int height = textLayout == null ? Math.round(textPaint.getFontSpacing()) : textLayout.getHeight();
+            if(lastUpdated != null){
+                height += lastUpdatedLayout == null ? Math.round(lastUpdatedPaint.getFontSpacing()) : lastUpdatedLayout.getHeight();
+            }
+
+            return height;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec){
+            int width = MeasureSpec.getSize(widthMeasureSpec);
+            ensureTextLayouts(width);
+
+            int height = 2 * padding + Math.max(arrow.getHeight(), getTextHeight());
+            setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas){
+            ensureTextLayouts(getWidth());
+
+            float centerY = getHeight() / 2f;
+            float iconCenterX = padding + arrowMargin + arrow.getWidth() / 2f;
+
+            if(refreshing){
+                float radius = Math.min(arrow.getWidth(), arrow.getHeight()) / 2f - spinnerPaint.getStrokeWidth();
+                long time = AnimationUtils.currentAnimationTimeMillis() % SPINNER_ROTATION_DURATION;
+                float start = (time / SPINNER_FRAME_INTERVAL) * 360f / SPINNER_STEPS;
+                spinnerBounds.set(iconCenterX - radius, centerY - radius, iconCenterX + radius, centerY + radius);
+                canvas.drawArc(spinnerBounds, start, SPINNER_SWEEP, false, spinnerPaint);
+
+                // An overlay header is not attached, the list draws it again instead
+                if(!spinnerFramePosted && getWindowToken() != null){
+                    spinnerFramePosted = true;
+                    postDelayed(spinnerFrameRunnable, SPINNER_FRAME_INTERVAL - time % SPINNER_FRAME_INTERVAL);
+                }
+            }else{
+                canvas.save();
+                canvas.rotate(arrowRotation, iconCenterX, centerY);
+                canvas.drawBitmap(arrow, iconCenterX - arrow.getWidth() / 2f, centerY - arrow.getHeight() / 2f, null);
+                canvas.restore();
+            }
+
+            float top = centerY - getTextHeight() / 2f;
+            float left = (getWidth() - textWidth) / 2f;
+            canvas.save();
+            canvas.translate(left, top);
+            if(textLayout != null){
+                textLayout.draw(canvas);
+                canvas.translate(0, textLayout.getHeight());
+            }
+            if(lastUpdatedLayout != null){
+                lastUpdatedLayout.draw(canvas);
+            }
+            canvas.restore();
+        }
+    }
+}
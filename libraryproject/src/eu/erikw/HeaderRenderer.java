@@ -0,0 +1,72 @@
+package eu.erikw;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Draws the header of a PullToRefreshListView. The list owns the state and the texts, and
+ * tells the renderer what to show; the renderer owns the header view.
+ * <p/>
+ * LayoutHeaderRenderer (the default) inflates R.layout.ptr_header_content and is styled
+ * through the ptr_* styles. CanvasHeaderRenderer draws the whole header in a single view.
+ * Call PullToRefreshListView.setHeaderRenderer(..) to use another renderer.
+ */
+public interface HeaderRenderer{
+
+    /**
+     * Create the header view. Called once, when the header is shown for the first time.
+     * The list collapses the header through the top margin of the view.
+     *
+     * @param inflater  The inflater of the list
+     * @param container The header container the view is added to. Do not add it yourself.
+     * @return The header view
+     */
+    public View onCreateView(LayoutInflater inflater, ViewGroup container);
+
+    /**
+     * Called whenever the header moved, on every frame while it is dragged or settles.
+     * Use it to drive indicators continuously from the pull distance.
+     *
+     * @param progress 0 when the header is hidden, 1 when it is pulled exactly to the
+     *                 release threshold, more than 1 when it is pulled further
+     */
+    public void onPullProgress(float progress);
+
+    /**
+     * Show the 'Pull to Refresh' state.
+     *
+     * @param text    The label text
+     * @param animate True if the header was pulled back from 'Release to Refresh'
+     */
+    public void onPullToRefresh(CharSequence text, boolean animate);
+
+    /**
+     * Show the 'Release to Refresh' state.
+     *
+     * @param text    The label text
+     * @param animate True if the header was pulled past the threshold
+     */
+    public void onReleaseToRefresh(CharSequence text, boolean animate);
+
+    /**
+     * Show the 'Refreshing' state.
+     *
+     * @param text The label text
+     */
+    public void onRefreshing(CharSequence text);
+
+    /**
+     * @param lastUpdated The formatted last-updated text, or null to hide it
+     */
+    public void onLastUpdatedChanged(CharSequence lastUpdated);
+
+    /**
+     * The list measures the header again only when this value or its own width
+     * changes, so it must change whenever the height of the header may change,
+     * for example with the text size or the visibility of the last-updated text.
+     *
+     * @return A value identifying the current header configuration
+     */
+    public int getMeasureKey();
+}
@@ -0,0 +1,71 @@
+package eu.erikw;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+
+/**
+ * One tick on every whole minute of the wall clock, shared by all lists that show a
+ * relative 'last updated' text. A list is only registered while its header is on
+ * screen, and the tick only runs while at least one list is registered.
+ * <p/>
+ * Only to be used from the UI thread.
+ */
+class LastUpdatedTicker{
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    interface Listener{
+
+        /**
+         * A minute of the wall clock has passed.
+         */
+        public void onMinuteTick();
+    }
+
+    private static final Handler             handler   = new Handler(Looper.getMainLooper());
+    private static final ArrayList<Listener> listeners = new ArrayList<Listener>();
+    private static final Runnable            tick      = new Runnable(){
+
+        @Override
+        public void run(){
+            // Backwards, listeners may unregister while they are called
+            for(int i = listeners.size() - 1; i >= 0; i--){
+                if(i < listeners.size()){
+                    listeners.get(i).onMinuteTick();
+                }
+            }
+
+            if(!listeners.isEmpty()){
+                schedule();
+            }
+        }
+    };
+
+    private LastUpdatedTicker(){
+    }
+
+    static void register(Listener listener){
+        if(listeners.contains(listener)){
+            return;
+        }
+
+        listeners.add(listener);
+        if(listeners.size() == 1){
+            schedule();
+        }
+    }
+
+    static void unregister(Listener listener){
+        if(listeners.remove(listener) && listeners.isEmpty()){
+            handler.removeCallbacks(tick);
+        }
+    }
+
+    private static void schedule(){
+        // A little past the minute, a tick that arrives early would show the old text for another minute
+        long now = System.currentTimeMillis();
+        handler.postDelayed(tick, MINUTE_MILLIS - now % MINUTE_MILLIS + 10);
+    }
+}
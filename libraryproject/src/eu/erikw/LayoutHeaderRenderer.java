@@ -0,0 +1,129 @@
+package eu.erikw;
+
+import android.os.Build;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.LinearInterpolator;
+import android.view.animation.RotateAnimation;
+import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+/**
+ * The default HeaderRenderer. Inflates R.layout.ptr_header_content, which can be
+ * customized through the ptr_* styles.
+ * <p/>
+ * From Honeycomb on, the arrow rotation is a view property that follows the pull
+ * progress, so it is applied when the frame is drawn without invalidating anything.
+ * Older versions flip the arrow with a RotateAnimation when the release threshold is
+ * crossed.
+ */
+public class LayoutHeaderRenderer implements HeaderRenderer{
+
+    private static final int     ROTATE_ARROW_ANIMATION_DURATION = 250;
+    private static final boolean PROPERTY_ANIMATIONS             = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    private RotateAnimation flipAnimation;
+    private RotateAnimation reverseFlipAnimation;
+    private ImageView       image;
+    private ProgressBar     spinner;
+    private TextView        text;
+    private TextView        lastUpdatedTextView;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container){
+        View header = inflater.inflate(R.layout.ptr_header_content, container, false);
+        text = (TextView) header.findViewById(R.id.ptr_id_text);
+        lastUpdatedTextView = (TextView) header.findViewById(R.id.ptr_id_last_updated);
+        image = (ImageView) header.findViewById(R.id.ptr_id_image);
+        spinner = (ProgressBar) header.findViewById(R.id.ptr_id_spinner);
+
+        if(PROPERTY_ANIMATIONS){
+            return header;
+        }
+
+        flipAnimation = new RotateAnimation(0, -180, RotateAnimation.RELATIVE_TO_SELF, 0.5f, RotateAnimation.RELATIVE_TO_SELF, 0.5f);
+        flipAnimation.setInterpolator(new LinearInterpolator());
+        flipAnimation.setDuration(ROTATE_ARROW_ANIMATION_DURATION);
+        flipAnimation.setFillAfter(true);
+
+        reverseFlipAnimation = new RotateAnimation(-180, 0, RotateAnimation.RELATIVE_TO_SELF, 0.5f, RotateAnimation.RELATIVE_TO_SELF, 0.5f);
+        reverseFlipAnimation.setInterpolator(new LinearInterpolator());
+        reverseFlipAnimation.setDuration(ROTATE_ARROW_ANIMATION_DURATION);
+        reverseFlipAnimation.setFillAfter(true);
+
+        return header;
+    }
+
+    @Override
+    public void onPullProgress(float progress){
+        if(PROPERTY_ANIMATIONS){
+            image.setRotation(-180 * Math.max(0, Math.min(1, progress)));
+        }
+    }
+
+    @Override
+    public void onPullToRefresh(CharSequence pullToRefreshText, boolean animate){
+        setSpinnerVisible(false);
+        image.setVisibility(View.VISIBLE);
+        setText(text, pullToRefreshText);
+
+        if(animate && !PROPERTY_ANIMATIONS){
+            image.clearAnimation();
+            image.startAnimation(reverseFlipAnimation);
+        }
+    }
+
+    @Override
+    public void onReleaseToRefresh(CharSequence releaseToRefreshText, boolean animate){
+        setSpinnerVisible(false);
+        image.setVisibility(View.VISIBLE);
+        setText(text, releaseToRefreshText);
+
+        if(animate && !PROPERTY_ANIMATIONS){
+            image.clearAnimation();
+            image.startAnimation(flipAnimation);
+        }
+    }
+
+    @Override
+    public void onRefreshing(CharSequence refreshingText){
+        setSpinnerVisible(true);
+        image.clearAnimation();
+        image.setVisibility(View.INVISIBLE);
+        setText(text, refreshingText);
+    }
+
+    /**
+     * TextView.setText(..) builds a new text layout even for the same text, so unchanged
+     * texts are skipped.
+     */
+    private static void setText(TextView textView, CharSequence text){
+        if(!TextUtils.equals(textView.getText(), text)){
+            textView.setText(text);
+        }
+    }
+
+    private void setSpinnerVisible(boolean visible){
+        spinner.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+    }
+
+    @Override
+    public void onLastUpdatedChanged(CharSequence lastUpdated){
+        if(lastUpdated == null){
+            lastUpdatedTextView.setVisibility(View.GONE);
+        }else{
+            lastUpdatedTextView.setVisibility(View.VISIBLE);
+            setText(lastUpdatedTextView, lastUpdated);
+        }
+    }
+
+    @Override
+    public int getMeasureKey(){
+        int key = Float.floatToIntBits(text.getTextSize());
+        key = 31 * key + Float.floatToIntBits(lastUpdatedTextView.getTextSize());
+        return 31 * key + lastUpdatedTextView.getVisibility();
+    }
+}
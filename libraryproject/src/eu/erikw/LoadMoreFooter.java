@@ -0,0 +1,195 @@
+package eu.erikw;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * The 'load more' footer of a PullToRefreshListView. When the list is scrolled to within
+ * the prefetch distance of the last row, the next page is loaded on the refresh executor
+ * and appended to the PullToRefreshAdapter. At most one page is loaded at a time.
+ * <p/>
+ * Page 0 is the data set by the last refresh, so pages are requested from 1 onwards and
+ * the page count starts over after every refresh. No page is loaded or appended while a
+ * refresh or a submitItems(..) is pending, a page would be appended to the old items.
+ */
+class LoadMoreFooter{
+
+    static final int DEFAULT_PREFETCH_DISTANCE = 5;
+
+    /**
+     * Mirrors the header states: idle while there is nothing to load, loading while a
+     * page is in flight, failed until the footer is tapped and exhausted once a page
+     * came back empty.
+     */
+    private static enum State{
+        IDLE,
+        LOADING,
+        FAILED,
+        EXHAUSTED
+    }
+
+    private final Handler               handler = new Handler(Looper.getMainLooper());
+    private final PullToRefreshListView listView;
+    private final LinearLayout          footerContainer;
+    private final View                  footer;
+    private final ProgressBar           spinner;
+    private final TextView              text;
+
+    private PullToRefreshListView.PageLoader<?> pageLoader;
+    private int                                 prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+    private int                                 nextPage = 1;
+    private int                                 generation;
+    private State                               state;
+
+    LoadMoreFooter(PullToRefreshListView listView){
+        this.listView = listView;
+
+        footerContainer = (LinearLayout) LayoutInflater.from(listView.getContext()).inflate(R.layout.ptr_footer, null);
+        footer = footerContainer.findViewById(R.id.ptr_id_footer);
+        spinner = (ProgressBar) footer.findViewById(R.id.ptr_id_footer_spinner);
+        text = (TextView) footer.findViewById(R.id.ptr_id_footer_text);
+
+        setState(State.IDLE);
+    }
+
+    View getView(){
+        return footerContainer;
+    }
+
+    void setPageLoader(PullToRefreshListView.PageLoader<?> pageLoader){
+        this.pageLoader = pageLoader;
+        reset();
+    }
+
+    void setPrefetchDistance(int prefetchDistance){
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    /**
+     * Start over at page 1, dropping the page in flight. Called when a refresh completes.
+     */
+    void reset(){
+        generation++;
+        nextPage = 1;
+        setState(State.IDLE);
+    }
+
+    /**
+     * Load the next page if the last visible row is within the prefetch distance
+     * of the last item.
+     */
+    void onScroll(int firstVisibleItem, int visibleItemCount, int totalItemCount){
+        if(pageLoader == null || state != State.IDLE || isUpdatePending()){
+            return;
+        }
+
+        int itemCount = totalItemCount - listView.getHeaderViewsCount() - listView.getFooterViewsCount();
+        if(itemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - listView.getFooterViewsCount() - prefetchDistance){
+            loadNextPage();
+        }
+    }
+
+    /**
+     * The footer was tapped.
+     */
+    void onClick(){
+        if(state == State.FAILED){
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage(){
+        final PullToRefreshListView.PageLoader<?> loader = pageLoader;
+        final int page = nextPage;
+        final int loadGeneration = generation;
+
+        setState(State.LOADING);
+        listView.getRefreshExecutor().execute(new Runnable(){
+
+            @Override
+            public void run(){
+                List<?> items = null;
+                Exception error = null;
+                try{
+                    items = loader.loadPage(page);
+                }catch(Exception e){
+                    error = e;
+                }
+
+                final List<?> result = items;
+                final Exception failure = error;
+                handler.post(new Runnable(){
+
+                    @Override
+                    public void run(){
+                        if(loadGeneration == generation){
+                            onPageLoaded(result, failure);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onPageLoaded(List<?> items, Exception error){
+        if(error != null){
+            setState(State.FAILED);
+            return;
+        }
+
+        if(items == null || items.isEmpty()){
+            setState(State.EXHAUSTED);
+            return;
+        }
+
+        PullToRefreshAdapter<Object> adapter = (PullToRefreshAdapter<Object>) listView.getPullToRefreshAdapter();
+        if(adapter == null){
+            throw new IllegalStateException("A PageLoader requires a PullToRefreshAdapter");
+        }
+
+        // Loaded again once the new items are shown; the layout then calls onScroll(..)
+        if(isUpdatePending()){
+            setState(State.IDLE);
+            return;
+        }
+
+        nextPage++;
+        setState(State.IDLE);
+        adapter.appendItems((List<Object>) items);
+    }
+
+    private boolean isUpdatePending(){
+        PullToRefreshAdapter<?> adapter = listView.getPullToRefreshAdapter();
+        return listView.isRefreshing() || (adapter != null && adapter.isSubmitPending());
+    }
+
+    private void setState(State state){
+        this.state = state;
+        switch(state){
+            case IDLE:
+            case EXHAUSTED:
+                footer.setVisibility(View.GONE);
+                break;
+
+            case LOADING:
+                footer.setVisibility(View.VISIBLE);
+                spinner.setVisibility(View.VISIBLE);
+                text.setText(R.string.ptr_loading_more);
+                break;
+
+            case FAILED:
+                footer.setVisibility(View.VISIBLE);
+                spinner.setVisibility(View.INVISIBLE);
+                text.setText(R.string.ptr_load_more_failed);
+                break;
+        }
+    }
+}
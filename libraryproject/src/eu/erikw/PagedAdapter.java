@@ -0,0 +1,285 @@
+package eu.erikw;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * An adapter for PullToRefreshListView that keeps only a window of pages in memory.
+ * <p/>
+ * The number of rows is set with setCount(..). Pages of getPageSize() rows are loaded on a
+ * background thread by loadPage(..) when one of their rows is shown. While a page loads, its
+ * rows are bound with bindPlaceholder(..). At most getMaxPages() pages stay resident; the
+ * least recently shown page is evicted first and loaded again when it is shown again.
+ * <p/>
+ * The list calls invalidate() when a refresh completes; call it yourself when the data
+ * changes otherwise. The resident pages are kept and shown until they are loaded again,
+ * and a page that comes back unchanged is kept as it is.
+ *
+ * @param <T> The item type
+ */
+public abstract class PagedAdapter<T> extends BaseAdapter{
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    private final Handler                         handler = new Handler(Looper.getMainLooper());
+    private final int                             pageSize;
+    private final int                             maxPages;
+    private final LinkedHashMap<Integer, Page<T>> pages;
+    private final HashSet<Integer>                loading = new HashSet<Integer>();
+
+    private volatile int          lastShownPage;
+    private int                   count;
+    private int                   generation;
+    private PullToRefreshListView listView;
+
+    public PagedAdapter(){
+        this(DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param pageSize The number of rows per page
+     * @param maxPages The number of pages to keep in memory. Must be enough to cover
+     *                 the visible rows, plus one page on each side.
+     */
+    public PagedAdapter(int pageSize, final int maxPages){
+        if(pageSize < 1 || maxPages < 3){
+            throw new IllegalArgumentException("pageSize must be at least 1 and maxPages at least 3");
+        }
+
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<Integer, Page<T>>(maxPages * 2, 0.75f, true){
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page<T>> eldest){
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Load a page. Called on a background thread.
+     *
+     * @param page     The page, its first row is at page * pageSize
+     * @param pageSize The number of rows per page. Only the last page may have less.
+     * @return The items of the page
+     */
+    protected abstract List<T> loadPage(int page, int pageSize) throws Exception;
+
+    /**
+     * Create a new row view. Do not bind it, bindView(..) or bindPlaceholder(..) is called next.
+     *
+     * @param parent   The list
+     * @param viewType The view type, see getItemViewType(..)
+     * @return The new row view
+     */
+    public abstract View newView(ViewGroup parent, int viewType);
+
+    /**
+     * Show the item in the given row view.
+     *
+     * @param view     A row view created by newView(..)
+     * @param item     The item to show
+     * @param position The position of the item
+     */
+    public abstract void bindView(View view, T item, int position);
+
+    /**
+     * Show a placeholder in the given row view while its page is loading.
+     *
+     * @param view     A row view created by newView(..)
+     * @param position The position of the row
+     */
+    public abstract void bindPlaceholder(View view, int position);
+
+    /**
+     * Called on the UI thread when a page failed to load. Default does nothing;
+     * the page is loaded again when one of its rows is shown again.
+     *
+     * @param page The page
+     * @param e    The exception thrown by loadPage(..)
+     */
+    public void onPageFailed(int page, Exception e){
+    }
+
+    /**
+     * Set the total number of rows. Pages that are resident stay resident.
+     *
+     * @param count The number of rows
+     */
+    public void setCount(int count){
+        this.count = count;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Mark all resident pages as stale. They are still shown, but loaded again when
+     * one of their rows is shown. The visible pages are loaded again right away.
+     */
+    public void invalidate(){
+        generation++;
+        loading.clear();
+
+        for(Page<T> page : pages.values()){
+            page.stale = true;
+        }
+
+        if(listView != null && listView.getChildCount() > 0){
+            int headers = listView.getHeaderViewsCount();
+            int first = Math.max(0, listView.getFirstVisiblePosition() - headers);
+            int last = Math.min(count - 1, listView.getLastVisiblePosition() - headers);
+            for(int page = first / pageSize; first <= last && page <= last / pageSize; page++){
+                requestPage(page);
+            }
+        }
+    }
+
+    public int getPageSize(){
+        return pageSize;
+    }
+
+    public int getMaxPages(){
+        return maxPages;
+    }
+
+    void setListView(PullToRefreshListView listView){
+        this.listView = listView;
+    }
+
+    private void requestPage(final int page){
+        if(!loading.add(page)){
+            return;
+        }
+
+        final int loadGeneration = generation;
+        Executor executor = listView == null ? RefreshPipeline.getDefaultExecutor() : listView.getRefreshExecutor();
+        executor.execute(new Runnable(){
+
+            @Override
+            public void run(){
+                // The list was scrolled far away from this page before it got its turn
+                if(Math.abs(page - lastShownPage) > maxPages / 2){
+                    postResult(page, loadGeneration, null, null);
+                    return;
+                }
+
+                List<T> items = null;
+                Exception error = null;
+                try{
+                    items = loadPage(page, pageSize);
+                }catch(Exception e){
+                    error = e;
+                }
+                postResult(page, loadGeneration, items, error);
+            }
+        });
+    }
+
+    private void postResult(final int page, final int loadGeneration, final List<T> items, final Exception error){
+        handler.post(new Runnable(){
+
+            @Override
+            public void run(){
+                if(loadGeneration != generation){
+                    return;
+                }
+
+                loading.remove(page);
+                if(error != null){
+                    onPageFailed(page, error);
+                }else if(items != null){
+                    onPageLoaded(page, items);
+                }
+            }
+        });
+    }
+
+    private void onPageLoaded(int page, List<T> items){
+        Page<T> resident = pages.get(page);
+        if(resident != null && resident.items.equals(items)){
+            // Still valid, the rows showing it are up to date
+            resident.stale = false;
+            return;
+        }
+
+        pages.put(page, new Page<T>(items));
+
+        if(listView == null || isVisible(page)){
+            notifyDataSetChanged();
+        }
+    }
+
+    private boolean isVisible(int page){
+        int headers = listView.getHeaderViewsCount();
+        int first = listView.getFirstVisiblePosition() - headers;
+        int last = listView.getLastVisiblePosition() - headers;
+
+        return page * pageSize <= last && (page + 1) * pageSize > first;
+    }
+
+    @Override
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * @return The item, or null if its page is not loaded
+     */
+    @Override
+    public T getItem(int position){
+        Page<T> page = pages.get(position / pageSize);
+        int index = position % pageSize;
+
+        return page == null || index >= page.items.size() ? null : page.items.get(index);
+    }
+
+    @Override
+    public long getItemId(int position){
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent){
+        View view = convertView;
+        if(view == null){
+            view = newView(parent, getItemViewType(position));
+        }
+
+        int pageIndex = position / pageSize;
+        lastShownPage = pageIndex;
+
+        Page<T> page = pages.get(pageIndex);
+        if(page == null || page.stale){
+            requestPage(pageIndex);
+        }
+
+        int index = position % pageSize;
+        if(page != null && index < page.items.size()){
+            bindView(view, page.items.get(index), position);
+        }else{
+            bindPlaceholder(view, position);
+        }
+
+        return view;
+    }
+
+    private static class Page<T>{
+
+        final List<T> items;
+        boolean       stale;
+
+        Page(List<T> items){
+            this.items = items;
+        }
+    }
+}
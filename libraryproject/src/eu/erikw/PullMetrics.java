@@ -0,0 +1,94 @@
+package eu.erikw;
+
+/**
+ * Timings of a single pull gesture of a PullToRefreshListView, reported to its
+ * OnPullMetricsListener. A gesture runs from touch down until the header has settled
+ * and, if it was released to refresh, the refresh has completed.
+ * <p/>
+ * The same instance is reused for every gesture; copy the values to keep them.
+ * Durations are in milliseconds, -1 means not applicable or not measured.
+ */
+public class PullMetrics{
+
+    long    touchToFirstMoveMillis;
+    int     layoutCount;
+    int     frameCount;
+    int     droppedFrameCount;
+    long    longestFrameMillis;
+    long    bounceDurationMillis;
+    long    releaseToRefreshCompleteMillis;
+    boolean refreshTriggered;
+
+    PullMetrics(){
+        reset();
+    }
+
+    void reset(){
+        touchToFirstMoveMillis = -1;
+        layoutCount = 0;
+        frameCount = -1;
+        droppedFrameCount = -1;
+        longestFrameMillis = -1;
+        bounceDurationMillis = -1;
+        releaseToRefreshCompleteMillis = -1;
+        refreshTriggered = false;
+    }
+
+    /**
+     * @return The time from the first pull sample until the header moved on screen
+     */
+    public long getTouchToFirstMoveMillis(){
+        return touchToFirstMoveMillis;
+    }
+
+    /**
+     * @return The number of times the list was laid out during the gesture
+     */
+    public int getLayoutCount(){
+        return layoutCount;
+    }
+
+    /**
+     * @return The number of frames drawn during drag and bounce, -1 before Jelly Bean
+     */
+    public int getFrameCount(){
+        return frameCount;
+    }
+
+    /**
+     * @return The number of frames missed during drag and bounce, -1 before Jelly Bean
+     */
+    public int getDroppedFrameCount(){
+        return droppedFrameCount;
+    }
+
+    /**
+     * @return The longest time between two frames during drag and bounce, -1 before Jelly Bean
+     */
+    public long getLongestFrameMillis(){
+        return longestFrameMillis;
+    }
+
+    /**
+     * @return The time the header took to settle after it was released
+     */
+    public long getBounceDurationMillis(){
+        return bounceDurationMillis;
+    }
+
+    /**
+     * @return The time from releasing the header until onRefreshComplete() (or the
+     *         end of a RefreshTask), -1 if no refresh was triggered or the next
+     *         gesture started first
+     */
+    public long getReleaseToRefreshCompleteMillis(){
+        return releaseToRefreshCompleteMillis;
+    }
+
+    /**
+     * @return True if the header was released to refresh
+     */
+    public boolean isRefreshTriggered(){
+        return refreshTriggered;
+    }
+}
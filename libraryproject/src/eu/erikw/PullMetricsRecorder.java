@@ -0,0 +1,237 @@
+package eu.erikw;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.view.Choreographer;
+import android.view.Display;
+
+/**
+ * Collects the PullMetrics of the gestures of a PullToRefreshListView. Only exists while
+ * an OnPullMetricsListener is set, so a list without one pays nothing but null checks.
+ * <p/>
+ * Frames are timed with the Choreographer from the first header move until the header
+ * has settled. A frame is counted as dropped for every vsync interval it overran.
+ */
+class PullMetricsRecorder{
+
+    private static final float DEFAULT_REFRESH_RATE = 60;
+
+    private final PullToRefreshListView                       listView;
+    private final PullToRefreshListView.OnPullMetricsListener listener;
+    private final PullMetrics                                 metrics = new PullMetrics();
+    private final FrameMonitor                                frameMonitor;
+
+    private boolean active;
+    private boolean pulled;
+    private boolean released;
+    private boolean settling;
+    private boolean refreshing;
+    private long    firstSampleTime;
+    private long    settleStartTime;
+    private long    releaseTime;
+
+    PullMetricsRecorder(PullToRefreshListView listView, PullToRefreshListView.OnPullMetricsListener listener){
+        this.listView = listView;
+        this.listener = listener;
+        this.frameMonitor = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameMonitor() : null;
+    }
+
+    static void beginSection(String sectionName){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2){
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    static void endSection(){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2){
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * A finger went down. A gesture that is still waiting for its refresh is reported now.
+     */
+    void onGestureStart(){
+        if(active){
+            dispatch();
+        }
+
+        metrics.reset();
+        active = true;
+        pulled = false;
+        released = false;
+        settling = false;
+        refreshing = false;
+        firstSampleTime = -1;
+    }
+
+    void onPullSample(long eventTime){
+        if(active && firstSampleTime == -1){
+            firstSampleTime = eventTime;
+        }
+    }
+
+    void onHeaderMoved(){
+        if(!active || pulled){
+            return;
+        }
+
+        pulled = true;
+        if(firstSampleTime != -1){
+            metrics.touchToFirstMoveMillis = SystemClock.uptimeMillis() - firstSampleTime;
+        }
+        startFrames();
+    }
+
+    void onLayout(){
+        if(active){
+            metrics.layoutCount++;
+        }
+    }
+
+    void onSettleStart(){
+        if(active && !settling){
+            settling = true;
+            settleStartTime = SystemClock.uptimeMillis();
+            startFrames();
+        }
+    }
+
+    void onSettleEnd(){
+        if(active && settling){
+            settling = false;
+            metrics.bounceDurationMillis = SystemClock.uptimeMillis() - settleStartTime;
+            stopFrames();
+            finishIfDone();
+        }
+    }
+
+    void onRefreshStarted(){
+        if(active && !released){
+            refreshing = true;
+            metrics.refreshTriggered = true;
+            releaseTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    void onRefreshEnded(){
+        if(active && refreshing){
+            refreshing = false;
+            metrics.releaseToRefreshCompleteMillis = SystemClock.uptimeMillis() - releaseTime;
+            finishIfDone();
+        }
+    }
+
+    /**
+     * The finger went up (or the gesture was cancelled), after the header was sent on its way.
+     */
+    void onGestureEnd(){
+        if(!active){
+            return;
+        }
+
+        released = true;
+        if(!settling){
+            stopFrames();
+        }
+        finishIfDone();
+    }
+
+    /**
+     * Stops timing frames, the list went away.
+     */
+    void cancel(){
+        stopFrames();
+        active = false;
+    }
+
+    private void finishIfDone(){
+        if(released && !settling && !refreshing){
+            dispatch();
+        }
+    }
+
+    private void dispatch(){
+        stopFrames();
+        active = false;
+
+        // Touches that never moved the header are not pulls
+        if(pulled){
+            listener.onPullMetrics(metrics);
+        }
+    }
+
+    private void startFrames(){
+        if(frameMonitor != null){
+            frameMonitor.start();
+        }
+    }
+
+    private void stopFrames(){
+        if(frameMonitor != null){
+            frameMonitor.stop();
+        }
+    }
+
+    private class FrameMonitor implements Choreographer.FrameCallback{
+
+        private boolean running;
+        private long    lastFrameTimeNanos;
+        private long    frameIntervalNanos;
+
+        void start(){
+            if(running){
+                return;
+            }
+
+            float refreshRate = DEFAULT_REFRESH_RATE;
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1){
+                Display display = listView.getDisplay();
+                if(display != null && display.getRefreshRate() > 0){
+                    refreshRate = display.getRefreshRate();
+                }
+            }
+
+            frameIntervalNanos = (long) (1000000000L / refreshRate);
+            lastFrameTimeNanos = 0;
+            running = true;
+
+            if(metrics.frameCount == -1){
+                metrics.frameCount = 0;
+                metrics.droppedFrameCount = 0;
+                metrics.longestFrameMillis = 0;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop(){
+            if(running){
+                running = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos){
+            if(!running){
+                return;
+            }
+
+            if(lastFrameTimeNanos != 0){
+                long interval = frameTimeNanos - lastFrameTimeNanos;
+                metrics.frameCount++;
+                metrics.longestFrameMillis = Math.max(metrics.longestFrameMillis, interval / 1000000);
+
+                // Half an interval of slack for vsync jitter
+                long missed = (interval + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+                if(missed > 0){
+                    metrics.droppedFrameCount += missed;
+                }
+            }
+
+            lastFrameTimeNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
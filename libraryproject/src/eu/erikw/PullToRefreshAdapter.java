@@ -0,0 +1,371 @@
+package eu.erikw;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An adapter for PullToRefreshListView that updates its rows incrementally.
+ * <p/>
+ * New data is passed to submitItems(..) (or to PullToRefreshListView.onRefreshComplete(..)).
+ * The difference with the current data is computed by stable id on a background thread.
+ * Items that did not change keep their old instance, and a row that already shows an
+ * instance is not bound again. When no items were inserted, removed or moved, only the
+ * visible rows of changed items are bound; everything else is bound lazily on scroll.
+ * <p/>
+ * getStableId(..) and areContentsTheSame(..) are called on a background thread and must not
+ * depend on UI state. bindView(..) should only depend on the item, not on its position,
+ * since a row is not bound again when its item moves.
+ *
+ * @param <T> The item type
+ */
+public abstract class PullToRefreshAdapter<T> extends BaseAdapter{
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private List<T>               items = Collections.emptyList();
+    private int                   generation;
+    private boolean               submitPending;
+    private PullToRefreshListView listView;
+
+    /**
+     * @param item An item of this adapter
+     * @return An id that identifies the item across refreshes
+     */
+    public abstract long getStableId(T item);
+
+    /**
+     * Create a new row view. Do not bind it, bindView(..) is called next.
+     *
+     * @param parent   The list
+     * @param viewType The view type, see getItemViewType(..)
+     * @return The new row view
+     */
+    public abstract View newView(ViewGroup parent, int viewType);
+
+    /**
+     * Show the item in the given row view.
+     *
+     * @param view     A row view created by newView(..)
+     * @param item     The item to show
+     * @param position The position of the item
+     */
+    public abstract void bindView(View view, T item, int position);
+
+    /**
+     * Default uses equals(..). Called on a background thread for items with
+     * the same stable id.
+     *
+     * @return True if a row showing oldItem does not need to be bound to newItem
+     */
+    public boolean areContentsTheSame(T oldItem, T newItem){
+        return oldItem.equals(newItem);
+    }
+
+    /**
+     * Replace the items right away and rebind all visible rows.
+     *
+     * @param items The new items. The list must not be modified afterwards.
+     */
+    public void setItems(List<T> items){
+        generation++;
+        submitPending = false;
+        this.items = items;
+        notifyDataSetChanged();
+        if(listView != null){
+            listView.onItemsCommitted();
+        }
+    }
+
+    /**
+     * Replace the items after computing the difference on a background thread.
+     * Only rows of items that changed are bound again. When submitItems(..) is
+     * called again before the difference is computed, the older items are dropped.
+     *
+     * @param items The new items. The list must not be modified afterwards.
+     */
+    public void submitItems(List<T> items){
+        submitItems(items, null);
+    }
+
+    /**
+     * Append items to the end. Rows that are already visible show the same
+     * items as before and are not bound again. Like setItems(..), this drops a
+     * submitItems(..) whose difference is still being computed.
+     *
+     * @param newItems The items to append
+     */
+    public void appendItems(List<T> newItems){
+        // A pending diff was computed against the items without the appended ones
+        generation++;
+        submitPending = false;
+
+        ArrayList<T> appended = new ArrayList<T>(items.size() + newItems.size());
+        appended.addAll(items);
+        appended.addAll(newItems);
+
+        items = appended;
+        notifyDataSetChanged();
+        if(listView != null){
+            listView.onItemsCommitted();
+        }
+    }
+
+    /**
+     * @return The current items
+     */
+    public List<T> getItems(){
+        return items;
+    }
+
+    /**
+     * @return True if the difference of a submitItems(..) is still being computed
+     */
+    boolean isSubmitPending(){
+        return submitPending;
+    }
+
+    void submitItems(final List<T> newItems, final Runnable onCommitted){
+        final int submitGeneration = ++generation;
+        submitPending = true;
+        final List<T> oldItems = items;
+
+        Executor executor = listView == null ? RefreshPipeline.getDefaultExecutor() : listView.getRefreshExecutor();
+        executor.execute(new Runnable(){
+
+            @Override
+            public void run(){
+                final Diff<T> diff = diff(oldItems, newItems);
+
+                handler.post(new Runnable(){
+
+                    @Override
+                    public void run(){
+                        if(submitGeneration == generation){
+                            submitPending = false;
+                            commit(diff);
+                            if(listView != null){
+                                listView.onItemsCommitted();
+                            }
+                        }
+                        if(onCommitted != null){
+                            onCommitted.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    void setListView(PullToRefreshListView listView){
+        this.listView = listView;
+    }
+
+    private Diff<T> diff(List<T> oldItems, List<T> newItems){
+        Diff<T> diff = new Diff<T>(newItems.size());
+        diff.structural = oldItems.size() != newItems.size();
+
+        for(int i = 0; !diff.structural && i < newItems.size(); i++){
+            diff.structural = getStableId(oldItems.get(i)) != getStableId(newItems.get(i));
+        }
+
+        HashMap<Long, T> oldItemsById = null;
+        if(diff.structural){
+            oldItemsById = new HashMap<Long, T>(oldItems.size() * 2);
+            for(T oldItem : oldItems){
+                oldItemsById.put(getStableId(oldItem), oldItem);
+            }
+        }
+
+        for(int i = 0; i < newItems.size(); i++){
+            T newItem = newItems.get(i);
+            T oldItem = oldItemsById == null ? oldItems.get(i) : oldItemsById.get(getStableId(newItem));
+
+            if(oldItem != null && areContentsTheSame(oldItem, newItem)){
+                diff.items.add(oldItem);
+            }else{
+                diff.items.add(newItem);
+                diff.addChanged(i);
+            }
+        }
+
+        return diff;
+    }
+
+    private void commit(Diff<T> diff){
+        // Remember the first visible row, so the list can be laid out around it again
+        int anchorPosition = -1;
+        long anchorId = 0;
+        int anchorTop = 0;
+        if(diff.structural && listView != null && listView.isPreservingScrollAnchor() && listView.getChildCount() > 0){
+            int first = listView.getFirstVisiblePosition();
+            int position = first - listView.getHeaderViewsCount();
+            if(!listView.isScrolledToTop() && position >= 0 && position < items.size()){
+                anchorPosition = position;
+                anchorId = getStableId(items.get(position));
+                anchorTop = listView.getChildAt(0).getTop() - listView.getPaddingTop();
+            }
+        }
+
+        items = diff.items;
+
+        if(diff.structural || listView == null){
+            notifyDataSetChanged();
+
+            if(anchorPosition != -1){
+                int position = findPosition(anchorId, anchorPosition);
+                if(position != -1){
+                    // Both only request a layout, the list is laid out once around the anchor
+                    listView.setSelectionFromTop(position + listView.getHeaderViewsCount(), anchorTop);
+                }
+            }
+            return;
+        }
+
+        int first = listView.getFirstVisiblePosition();
+        int last = listView.getLastVisiblePosition();
+        int headers = listView.getHeaderViewsCount();
+
+        for(int i = 0; i < diff.changedCount; i++){
+            int listPosition = diff.changed[i] + headers;
+            if(listPosition < first || listPosition > last){
+                continue;
+            }
+
+            View child = listView.getChildAt(listPosition - first);
+            if(!rebind(child, diff.changed[i])){
+                notifyDataSetChanged();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the item with the given id, searching outwards from where it used to be.
+     *
+     * @return The position of the item, or -1 if it is gone
+     */
+    private int findPosition(long id, int oldPosition){
+        int count = items.size();
+        int start = Math.min(oldPosition, count - 1);
+
+        for(int distance = 0; start - distance >= 0 || start + distance < count; distance++){
+            int after = start + distance;
+            if(after >= 0 && after < count && getStableId(items.get(after)) == id){
+                return after;
+            }
+
+            int before = start - distance;
+            if(before >= 0 && distance > 0 && getStableId(items.get(before)) == id){
+                return before;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean rebind(View child, int position){
+        Object viewType = child.getTag(R.id.ptr_id_view_type);
+        if(viewType == null || (Integer) viewType != getItemViewType(position)){
+            return false;
+        }
+
+        bindRow(child, items.get(position), position);
+        return true;
+    }
+
+    @Override
+    public int getCount(){
+        return items.size();
+    }
+
+    @Override
+    public T getItem(int position){
+        return items.get(position);
+    }
+
+    @Override
+    public long getItemId(int position){
+        return getStableId(items.get(position));
+    }
+
+    @Override
+    public boolean hasStableIds(){
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent){
+        T item = items.get(position);
+
+        // A row that was prefetched for this very item is ready as it is
+        View view = listView == null ? null : listView.takePrefetchedRow(position, item);
+        if(view != null){
+            return view;
+        }
+
+        view = convertView;
+        if(view == null){
+            view = acquireRow(parent, getItemViewType(position));
+        }
+        bindRow(view, item, position);
+
+        return view;
+    }
+
+    /**
+     * @return A row of the given type from the row pool of the list, or a new one
+     */
+    View acquireRow(ViewGroup parent, int viewType){
+        SharedViewPool pool = listView == null ? null : listView.getRowPool();
+        View view = pool == null ? null : pool.acquire(viewType);
+        if(view == null){
+            view = createRow(parent, viewType);
+        }
+
+        return view;
+    }
+
+    View createRow(ViewGroup parent, int viewType){
+        View view = newView(parent, viewType);
+        view.setTag(R.id.ptr_id_view_type, viewType);
+        return view;
+    }
+
+    void bindRow(View view, T item, int position){
+        // Rows that already show this very instance are up to date
+        if(view.getTag(R.id.ptr_id_bound_item) != item){
+            bindView(view, item, position);
+            view.setTag(R.id.ptr_id_bound_item, item);
+        }
+    }
+
+    private static class Diff<T>{
+
+        final ArrayList<T> items;
+        boolean            structural;
+        int[]              changed = new int[8];
+        int                changedCount;
+
+        Diff(int size){
+            items = new ArrayList<T>(size);
+        }
+
+        void addChanged(int position){
+            if(changedCount == changed.length){
+                int[] grown = new int[changedCount * 2];
+                System.arraycopy(changed, 0, grown, 0, changedCount);
+                changed = grown;
+            }
+            changed[changedCount++] = position;
+        }
+    }
+}
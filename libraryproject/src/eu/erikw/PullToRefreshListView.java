@@ -1,16 +1,28 @@
 package eu.erikw;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.*;
-import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 import android.view.animation.*;
-import android.view.animation.Animation.AnimationListener;
 import android.widget.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import eu.erikw.core.LastUpdatedFormatter;
+import eu.erikw.core.PullPhysics;
+import eu.erikw.core.RefreshPolicy;
+import eu.erikw.core.RefreshStateMachine;
+import eu.erikw.core.RefreshStateMachine.State;
 
 /**
  * A generic, customizable Android ListView implementation that has 'Pull to Refresh' functionality.
@@ -21,6 +33,9 @@ import java.util.Date;
  * to get notified on refresh events. The using class should call onRefreshComplete() when
  * refreshing is finished.
  * <p/>
+ * Alternatively, implement RefreshTask and call setRefreshTask(..). The refresh work then
+ * runs on a background executor and the header is reset when the result is delivered.
+ * <p/>
  * The using class can call setRefreshing() to set the state explicitly to refreshing. This
  * is useful when you want to show the spinner and 'Refreshing' text when the
  * refresh was not triggered by 'Pull to Refresh', for example on start.
@@ -33,17 +48,30 @@ import java.util.Date;
  */
 public class PullToRefreshListView extends ListView{
 
-    private static final float PULL_RESISTANCE                 = 1.7f;
     private static final int   BOUNCE_ANIMATION_DURATION       = 700;
-    private static final int   BOUNCE_ANIMATION_DELAY          = 100;
     private static final float BOUNCE_OVERSHOOT_TENSION        = 1.4f;
-    private static final int   ROTATE_ARROW_ANIMATION_DURATION = 250;
+    private static final int   SERVED_FROM_CACHE_DURATION      = 400;
+    private static final int   OVERLAY_SPINNER_FRAME_INTERVAL  = 1000 / 12;
 
-    private static enum State{
-        PULL_TO_REFRESH,
-        RELEASE_TO_REFRESH,
-        REFRESHING
-    }
+    /**
+     * Snapshots older than this are not shown, see setSnapshotMaxAge(..).
+     */
+    public static final long DEFAULT_SNAPSHOT_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Snapshots are cut off at this size, see setSnapshotMaxSize(..).
+     */
+    public static final int DEFAULT_SNAPSHOT_MAX_SIZE = 256 * 1024;
+
+    /**
+     * Time per frame for showing the items of a streaming refresh, see setStreamFrameBudget(..).
+     */
+    public static final long DEFAULT_STREAM_FRAME_BUDGET = 4;
+
+    /**
+     * Time per idle slice for prefetching rows, see setRowPrefetchBudget(..).
+     */
+    public static final long DEFAULT_ROW_PREFETCH_BUDGET = 4;
 
     /**
      * Interface to implement when you want to get notified of 'pull to refresh'
@@ -58,37 +86,198 @@ public class PullToRefreshListView extends ListView{
         public void onRefresh();
     }
 
-    private static int measuredHeaderHeight;
+    /**
+     * Interface to implement when a refresh delivers its items in batches, for example
+     * page by page. Call setOnStreamingRefreshListener(..) to activate an
+     * OnStreamingRefreshListener. Requires a PullToRefreshAdapter.
+     *
+     * @param <T> The item type
+     */
+    public interface OnStreamingRefreshListener<T>{
+
+        /**
+         * Method to be called on the UI thread when a refresh is requested. Push the
+         * items to the stream as they arrive and complete it when done; the list shows
+         * 'Refreshing' until then.
+         *
+         * @param stream The stream of this refresh
+         */
+        public void onRefresh(RefreshStream<T> stream);
+    }
+
+    /**
+     * Interface to implement when the refresh work should run off the UI thread.
+     * Call setRefreshTask(..) to activate a RefreshTask; it takes precedence over
+     * an OnRefreshListener.
+     * <p/>
+     * Only one refresh runs at a time. Refreshes that are triggered while one is
+     * in flight are coalesced into it.
+     *
+     * @param <T> The type of the refresh result
+     */
+    public interface RefreshTask<T>{
+
+        /**
+         * Method to be called on the refresh executor when a refresh is requested.
+         * The thread is interrupted when the refresh is cancelled.
+         *
+         * @return The refresh result, passed to onRefreshResult(..)
+         */
+        public T onRefreshInBackground() throws Exception;
+
+        /**
+         * Method to be called on the UI thread with the result of
+         * onRefreshInBackground(), right before the header is reset.
+         *
+         * @param result The refresh result
+         */
+        public void onRefreshResult(T result);
+
+        /**
+         * Method to be called on the UI thread when onRefreshInBackground() threw,
+         * right before the header is reset.
+         *
+         * @param e The exception thrown
+         */
+        public void onRefreshFailed(Exception e);
+    }
+
+    /**
+     * Interface to implement when you want to measure how smooth 'pull to refresh'
+     * gestures are, for example to report them from production.
+     * Call setOnPullMetricsListener(..) to activate an OnPullMetricsListener.
+     */
+    public interface OnPullMetricsListener{
+
+        /**
+         * Method to be called on the UI thread when a pull gesture is done: the header
+         * has settled and, if the gesture triggered a refresh, the refresh completed.
+         *
+         * @param metrics The metrics of the gesture. The instance is reused.
+         */
+        public void onPullMetrics(PullMetrics metrics);
+    }
+
+    /**
+     * Interface to implement when the list should load more items when it is
+     * scrolled to the end. Call setPageLoader(..) to activate a PageLoader.
+     * The pages are appended to the PullToRefreshAdapter of the list.
+     *
+     * @param <T> The item type of the PullToRefreshAdapter
+     */
+    public interface PageLoader<T>{
+
+        /**
+         * Method to be called on the refresh executor when the next page is
+         * needed. Page 0 is the data of the last refresh, so the first call
+         * after a refresh asks for page 1.
+         *
+         * @param page The page to load
+         * @return The items of the page, or an empty list if there are no more pages
+         */
+        public List<T> loadPage(int page) throws Exception;
+    }
+
+    /**
+     * Interface to implement when the items of the list should be kept between
+     * runs. Call setSnapshotCodec(..) to activate a SnapshotCodec. Items are
+     * written on a background thread and read when the list is attached.
+     *
+     * @param <T> The item type of the PullToRefreshAdapter
+     */
+    public interface SnapshotCodec<T>{
+
+        /**
+         * Write an item in a compact binary form.
+         *
+         * @param item The item
+         * @param out  The output to write to
+         */
+        public void writeItem(T item, DataOutput out) throws IOException;
+
+        /**
+         * Read an item that was written by writeItem(..). A snapshot in which an
+         * item cannot be read is dropped.
+         *
+         * @param in The input to read from
+         * @return The item
+         */
+        public T readItem(DataInput in) throws IOException;
+    }
 
     private boolean scrollbarEnabled;
-    private boolean bounceBackHeader;
     private boolean lockScrollWhileRefreshing;
+    private boolean preserveScrollAnchor;
+    private boolean overlayHeader;
     private boolean showLastUpdatedText;
+    private boolean lastUpdatedRelative;
+    private boolean tickerRegistered;
     private String  pullToRefreshText;
     private String  releaseToRefreshText;
     private String  refreshingText;
-    private String  lastUpdatedText;
-    private SimpleDateFormat lastUpdatedDateFormat = new SimpleDateFormat("dd/MM HH:mm");
+    private SimpleDateFormat      lastUpdatedDateFormat = new SimpleDateFormat("dd/MM HH:mm");
+    private LastUpdatedFormatter  lastUpdatedFormatter;
+    private RelativeTimeFormatter relativeTimeFormatter;
+    private String                lastUpdatedShown;
+    private PTRTickListener       tickListener;
 
     private float                   previousY;
+    private float                   pendingHeaderPadding;
+    private boolean                 headerFrameScheduled;
+    private PTRFrameCallback        headerFrameCallback;
+    private Runnable                headerFrameRunnable;
+    private Runnable                refreshCompleteRunnable;
+    private Runnable                spinnerFrameRunnable;
+    private boolean                 spinnerFramePosted;
     private int                     headerPadding;
+    private int                     committedHeaderPadding;
+    private int                     headerOffset;
+    private int                     overlayPadding;
+    private int                     overScrollMode = -1;
     private boolean                 hasResetHeader;
+    private int                     headerHeight;
+    private int                     measuredHeaderWidth = -1;
+    private int                     measuredHeaderKey;
     private long                    lastUpdated = -1;
-    private State                   state;
+    private RefreshStateMachine     stateMachine = new RefreshStateMachine();
+    private PullPhysics             pullPhysics = new PullPhysics();
     private LinearLayout            headerContainer;
-    private RelativeLayout          header;
-    private RotateAnimation         flipAnimation;
-    private RotateAnimation         reverseFlipAnimation;
-    private ImageView               image;
-    private ProgressBar             spinner;
-    private TextView                text;
-    private TextView                lastUpdatedTextView;
+    private HeaderRenderer          headerRenderer;
+    private View                    header;
+    private Scroller                settleScroller;
+    private State                   stateAtSettleStart;
     private OnItemClickListener     onItemClickListener;
     private OnItemLongClickListener onItemLongClickListener;
     private OnRefreshListener       onRefreshListener;
+    private RefreshTask<?>          refreshTask;
+    private RefreshStream<?>        refreshStream;
+    private long                    streamFrameBudget = DEFAULT_STREAM_FRAME_BUDGET;
+    private RefreshPipeline         refreshPipeline;
+    private PullToRefreshAdapter<?> pullToRefreshAdapter;
+    private PagedAdapter<?>         pagedAdapter;
+    private SharedViewPool          sharedViewPool;
+    private boolean                 adapterReleased;
+    private int                     releasedPosition;
+    private int                     releasedTop;
+    private RowPrefetcher           rowPrefetcher;
+    private long                    rowPrefetchBudget = DEFAULT_ROW_PREFETCH_BUDGET;
+    private LoadMoreFooter          loadMoreFooter;
+    private int                     prefetchDistance = LoadMoreFooter.DEFAULT_PREFETCH_DISTANCE;
+    private PullMetricsRecorder     pullMetricsRecorder;
+    private RefreshStats            refreshStats = new RefreshStats();
+    private OnScrollListener        onScrollListener;
+    private SnapshotStore           snapshotStore;
+    private boolean                 snapshotRestored;
+    private boolean                 snapshotPending;
+    private long                    snapshotMaxAge = DEFAULT_SNAPSHOT_MAX_AGE;
+    private int                     snapshotMaxSize = DEFAULT_SNAPSHOT_MAX_SIZE;
+    private RefreshPolicy           refreshPolicy;
+    private boolean                 windowVisible;
+    private Runnable                periodicRefreshRunnable;
+    private Runnable                servedFromCacheRunnable;
+    private boolean                 servingFromCache;
 
     private float mScrollStartY;
-    private final int IDLE_DISTANCE = 5;
 
     public PullToRefreshListView(Context context){
         super(context);
@@ -105,6 +294,109 @@ public class PullToRefreshListView extends ListView{
         init();
     }
 
+    @Override
+    public void setAdapter(ListAdapter adapter){
+        adapterReleased = false;
+        if(pullToRefreshAdapter != null){
+            pullToRefreshAdapter.setListView(null);
+        }
+        if(pagedAdapter != null){
+            pagedAdapter.setListView(null);
+        }
+
+        pullToRefreshAdapter = adapter instanceof PullToRefreshAdapter ? (PullToRefreshAdapter<?>) adapter : null;
+        if(pullToRefreshAdapter != null){
+            pullToRefreshAdapter.setListView(this);
+        }
+
+        pagedAdapter = adapter instanceof PagedAdapter ? (PagedAdapter<?>) adapter : null;
+        if(pagedAdapter != null){
+            pagedAdapter.setListView(this);
+        }
+
+        super.setAdapter(adapter);
+    }
+
+    PullToRefreshAdapter<?> getPullToRefreshAdapter(){
+        return pullToRefreshAdapter;
+    }
+
+    /**
+     * Share row views with other lists through the given pool. Rows are returned to the
+     * pool when this list is detached from the window, and new rows of a
+     * PullToRefreshAdapter are taken from it before they are inflated. To hand its rows
+     * over, the list lets go of its adapter while it is detached, and sets it again at
+     * the same scroll position when it is attached.
+     *
+     * @param sharedViewPool The pool, or null to not share rows
+     */
+    public void setSharedViewPool(SharedViewPool sharedViewPool){
+        this.sharedViewPool = sharedViewPool;
+    }
+
+    /**
+     * Default is off. When the UI thread is idle after a refresh completed or the header
+     * settled, rows are prepared for the next scroll: the given number of rows below the
+     * viewport are inflated and bound, and the row pool is filled up to the given number
+     * of rows per view type. Touching the list stops it. Requires a PullToRefreshAdapter.
+     *
+     * @param rowsPerViewType The number of rows per view type to keep inflated, 0 for none
+     * @param rowsToBind      The number of rows below the viewport to bind, 0 for none
+     */
+    public void setRowPrefetch(int rowsPerViewType, int rowsToBind){
+        if(rowPrefetcher == null){
+            if(rowsPerViewType == 0 && rowsToBind == 0){
+                return;
+            }
+            rowPrefetcher = new RowPrefetcher(this);
+            rowPrefetcher.setBudget(rowPrefetchBudget);
+        }
+
+        rowPrefetcher.setRows(rowsPerViewType, rowsToBind);
+    }
+
+    /**
+     * Default is 4 milliseconds. The time per idle slice for prefetching rows; the rest
+     * waits until the UI thread is idle again.
+     *
+     * @param budgetMillis The budget in milliseconds
+     */
+    public void setRowPrefetchBudget(long budgetMillis){
+        this.rowPrefetchBudget = budgetMillis;
+        if(rowPrefetcher != null){
+            rowPrefetcher.setBudget(budgetMillis);
+        }
+    }
+
+    /**
+     * @return The SharedViewPool, or the pool of the row prefetcher, or null
+     */
+    SharedViewPool getRowPool(){
+        if(sharedViewPool != null){
+            return sharedViewPool;
+        }
+
+        return rowPrefetcher == null ? null : rowPrefetcher.getPool();
+    }
+
+    /**
+     * @return The row prefetched for the given item, or null
+     */
+    View takePrefetchedRow(int position, Object item){
+        return rowPrefetcher == null ? null : rowPrefetcher.take(position, item);
+    }
+
+    private void startRowPrefetch(){
+        if(rowPrefetcher != null){
+            rowPrefetcher.start();
+        }
+    }
+
+    @Override
+    public void setOnScrollListener(OnScrollListener onScrollListener){
+        this.onScrollListener = onScrollListener;
+    }
+
     @Override
     public void setOnItemClickListener(OnItemClickListener onItemClickListener){
         this.onItemClickListener = onItemClickListener;
@@ -123,292 +415,1280 @@ public class PullToRefreshListView extends ListView{
      */
     public void setOnRefreshListener(OnRefreshListener onRefreshListener){
         this.onRefreshListener = onRefreshListener;
+        schedulePeriodicRefresh();
     }
 
     /**
-     * @return If the list is in 'Refreshing' state
+     * Activate an OnStreamingRefreshListener, whose items are shown while it is still
+     * refreshing. It replaces the OnRefreshListener, and vice versa.
+     *
+     * @param onStreamingRefreshListener The OnStreamingRefreshListener, or null for none
      */
-    public boolean isRefreshing(){
-        return state == State.REFRESHING;
+    public void setOnStreamingRefreshListener(OnStreamingRefreshListener<?> onStreamingRefreshListener){
+        setOnRefreshListener(onStreamingRefreshListener == null ? null : new PTRStreamingRefreshListener(onStreamingRefreshListener));
     }
 
     /**
-     * Default is false. When lockScrollWhileRefreshing is set to true, the list
-     * cannot scroll when in 'refreshing' mode. It's 'locked' on refreshing.
+     * Default is 4 milliseconds. The time per frame for committing the items of a
+     * streaming refresh; more items wait for the next frame.
      *
-     * @param lockScrollWhileRefreshing
+     * @param frameBudgetMillis The frame budget in milliseconds
      */
-    public void setLockScrollWhileRefreshing(boolean lockScrollWhileRefreshing){
-        this.lockScrollWhileRefreshing = lockScrollWhileRefreshing;
+    public void setStreamFrameBudget(long frameBudgetMillis){
+        this.streamFrameBudget = frameBudgetMillis;
     }
 
     /**
-     * Default is false. Show the last-updated date/time in the 'Pull ro Refresh'
-     * header. See 'setLastUpdatedDateFormat' to set the date/time formatting.
+     * Activate a RefreshTask to run on the refresh executor on 'pull to refresh'
+     * and setRefreshing() events. The header is reset automatically when the task
+     * is done, there is no need to call onRefreshComplete().
      *
-     * @param showLastUpdatedText
+     * @param refreshTask The RefreshTask to run, or null to fall back to the OnRefreshListener
      */
-    public void setShowLastUpdatedText(boolean showLastUpdatedText){
-        this.showLastUpdatedText = showLastUpdatedText;
-        if(!showLastUpdatedText) lastUpdatedTextView.setVisibility(View.GONE);
+    public void setRefreshTask(RefreshTask<?> refreshTask){
+        this.refreshTask = refreshTask;
+        schedulePeriodicRefresh();
+    }
+
+    RefreshTask<?> getRefreshTask(){
+        return refreshTask;
     }
 
     /**
-     * Default: "dd/MM HH:mm". Set the format in which the last-updated
-     * date/time is shown. Meaningless if 'showLastUpdatedText == false (default)'.
-     * See 'setShowLastUpdatedText'.
+     * Set the executor that runs RefreshTasks. Default is a shared pool of
+     * background threads.
      *
-     * @param lastUpdatedDateFormat
+     * @param executor The executor, or null for the default
      */
-    public void setLastUpdatedDateFormat(SimpleDateFormat lastUpdatedDateFormat){
-        this.lastUpdatedDateFormat = lastUpdatedDateFormat;
+    public void setRefreshExecutor(Executor executor){
+        refreshPipeline.setExecutor(executor);
     }
 
-    /**
-     * Explicitly set the state to refreshing. This
-     * is useful when you want to show the spinner and 'Refreshing' text when
-     * the refresh was not triggered by 'pull to refresh', for example on start.
-     */
-    public void setRefreshing(){
-        state = State.REFRESHING;
-        scrollTo(0, 0);
-        setUiRefreshing();
-        setHeaderPadding(0);
+    Executor getRefreshExecutor(){
+        return refreshPipeline.getExecutor();
     }
 
     /**
-     * Set the state back to 'pull to refresh'. Call this method when refreshing
-     * the data is finished.
+     * Default is 0 (no timeout). When a refresh has not finished after the given
+     * time, it is cancelled and the header is reset.
+     *
+     * @param timeoutMillis The timeout in milliseconds, 0 to disable
      */
-    public void onRefreshComplete(){
-        state = State.PULL_TO_REFRESH;
-        resetHeader();
-        lastUpdated = System.currentTimeMillis();
+    public void setRefreshTimeout(long timeoutMillis){
+        refreshPipeline.setTimeout(timeoutMillis);
     }
 
     /**
-     * Change the label text on state 'Pull to Refresh'
+     * Activate an OnPullMetricsListener to get the timings of every pull gesture.
+     * While a listener is set, onTouchEvent, setHeaderPadding, bounceBackHeader and
+     * dispatchState are also marked as android.os.Trace sections (Jelly Bean MR2 and up).
+     * Without a listener, nothing is measured.
      *
-     * @param pullToRefreshText Text
+     * @param onPullMetricsListener The listener, or null to stop measuring
      */
-    public void setTextPullToRefresh(String pullToRefreshText){
-        this.pullToRefreshText = pullToRefreshText;
-        if(state == State.PULL_TO_REFRESH){
-            text.setText(pullToRefreshText);
+    public void setOnPullMetricsListener(OnPullMetricsListener onPullMetricsListener){
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.cancel();
         }
+
+        pullMetricsRecorder = onPullMetricsListener == null ? null : new PullMetricsRecorder(this, onPullMetricsListener);
     }
 
     /**
-     * Change the label text on state 'Release to Refresh'
+     * Copy the refresh counters of this list into the given instance, without
+     * allocating. See RefreshStats.
      *
-     * @param releaseToRefreshText Text
+     * @param stats The instance to copy into
+     * @return The given instance
      */
-    public void setTextReleaseToRefresh(String releaseToRefreshText){
-        this.releaseToRefreshText = releaseToRefreshText;
-        if(state == State.RELEASE_TO_REFRESH){
-            text.setText(releaseToRefreshText);
-        }
+    public RefreshStats getRefreshStats(RefreshStats stats){
+        stats.set(refreshStats);
+        return stats;
     }
 
     /**
-     * Change the label text on state 'Refreshing'
-     *
-     * @param refreshingText Text
+     * @return A snapshot of the refresh counters of this list. See RefreshStats.
      */
-    public void setTextRefreshing(String refreshingText){
-        this.refreshingText = refreshingText;
-        if(state == State.REFRESHING){
-            text.setText(refreshingText);
-        }
+    public RefreshStats getRefreshStats(){
+        return getRefreshStats(new RefreshStats());
     }
 
-    private void init(){
-        setVerticalFadingEdgeEnabled(false);
-
-        headerContainer = (LinearLayout) LayoutInflater.from(getContext()).inflate(R.layout.ptr_header, null);
-        header = (RelativeLayout) headerContainer.findViewById(R.id.ptr_id_header);
-        text = (TextView) header.findViewById(R.id.ptr_id_text);
-        lastUpdatedTextView = (TextView) header.findViewById(R.id.ptr_id_last_updated);
-        image = (ImageView) header.findViewById(R.id.ptr_id_image);
-        spinner = (ProgressBar) header.findViewById(R.id.ptr_id_spinner);
-
-        pullToRefreshText = getContext().getString(R.string.ptr_pull_to_refresh);
-        releaseToRefreshText = getContext().getString(R.string.ptr_release_to_refresh);
-        refreshingText = getContext().getString(R.string.ptr_refreshing);
-        lastUpdatedText = getContext().getString(R.string.ptr_last_updated);
-
-        flipAnimation = new RotateAnimation(0, -180, RotateAnimation.RELATIVE_TO_SELF, 0.5f, RotateAnimation.RELATIVE_TO_SELF, 0.5f);
-        flipAnimation.setInterpolator(new LinearInterpolator());
-        flipAnimation.setDuration(ROTATE_ARROW_ANIMATION_DURATION);
-        flipAnimation.setFillAfter(true);
-
-        reverseFlipAnimation = new RotateAnimation(-180, 0, RotateAnimation.RELATIVE_TO_SELF, 0.5f, RotateAnimation.RELATIVE_TO_SELF, 0.5f);
-        reverseFlipAnimation.setInterpolator(new LinearInterpolator());
-        reverseFlipAnimation.setDuration(ROTATE_ARROW_ANIMATION_DURATION);
-        reverseFlipAnimation.setFillAfter(true);
-
-        addHeaderView(headerContainer);
-        setState(State.PULL_TO_REFRESH);
-        scrollbarEnabled = isVerticalScrollBarEnabled();
-
-        ViewTreeObserver vto = header.getViewTreeObserver();
-        vto.addOnGlobalLayoutListener(new PTROnGlobalLayoutListener());
-
-        super.setOnItemClickListener(new PTROnItemClickListener());
-        super.setOnItemLongClickListener(new PTROnItemLongClickListener());
+    /**
+     * Start counting refreshes from zero, for example after the counters were reported.
+     */
+    public void resetRefreshStats(){
+        refreshStats.reset();
     }
 
-    private void setHeaderPadding(int padding){
-        headerPadding = padding;
-
-        MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) header.getLayoutParams();
-        mlp.setMargins(0, Math.round(padding), 0, 0);
-        header.setLayoutParams(mlp);
+    /**
+     * Activate a RefreshPolicy to throttle refreshes. Pulls and setRefreshing() calls that
+     * the policy declines do not refresh, and while the list is visible it refreshes
+     * periodically if the policy asks for it. Snapshots count as successful refreshes
+     * at their last-updated time, on the wall clock.
+     *
+     * @param refreshPolicy The RefreshPolicy, or null to refresh on every request
+     */
+    public void setRefreshPolicy(RefreshPolicy refreshPolicy){
+        this.refreshPolicy = refreshPolicy;
+        schedulePeriodicRefresh();
     }
 
-    @Override
-    public boolean onTouchEvent(MotionEvent event){
-        if(lockScrollWhileRefreshing
-                && (state == State.REFRESHING || getAnimation() != null && !getAnimation().hasEnded())){
-            return true;
-        }
-
-        switch(event.getAction()){
-            case MotionEvent.ACTION_DOWN:
-                if(getFirstVisiblePosition() == 0){
-                	previousY = event.getY();
-                }
-                else {
-                	previousY = -1;
-                }
-                
-                // Remember where have we started
-                mScrollStartY = event.getY();
-                
-                break;
-
-            case MotionEvent.ACTION_UP:
-                if(previousY != -1 && (state == State.RELEASE_TO_REFRESH || getFirstVisiblePosition() == 0)){
-                    switch(state){
-                        case RELEASE_TO_REFRESH:
-                            setState(State.REFRESHING);
-                            bounceBackHeader();
-
-                            break;
-
-                        case PULL_TO_REFRESH:
-                            resetHeader();
-                            break;
-                    }
-                }
-                break;
-
-            case MotionEvent.ACTION_MOVE:
-                if(previousY != -1 && getFirstVisiblePosition() == 0 && Math.abs(mScrollStartY-event.getY()) > IDLE_DISTANCE){
-                    float y = event.getY();
-                    float diff = y - previousY;
-                    if(diff > 0) diff /= PULL_RESISTANCE;
-                    previousY = y;
-
-                    int newHeaderPadding = Math.max(Math.round(headerPadding + diff), -header.getHeight());
-
-                    if(newHeaderPadding != headerPadding && state != State.REFRESHING){
-                        setHeaderPadding(newHeaderPadding);
-
-                        if(state == State.PULL_TO_REFRESH && headerPadding > 0){
-                            setState(State.RELEASE_TO_REFRESH);
-
-                            image.clearAnimation();
-                            image.startAnimation(flipAnimation);
-                        }else if(state == State.RELEASE_TO_REFRESH && headerPadding < 0){
-                            setState(State.PULL_TO_REFRESH);
-
-                            image.clearAnimation();
-                            image.startAnimation(reverseFlipAnimation);
-                        }
-                    }
-                }
+    /**
+     * Activate a PageLoader to load more items when the list is scrolled to
+     * the end. A 'load more' footer is shown while a page is loading, or when
+     * it failed to load (tap it to retry). Requires a PullToRefreshAdapter.
+     *
+     * @param pageLoader The PageLoader, or null to stop loading more items
+     */
+    public void setPageLoader(PageLoader<?> pageLoader){
+        if(loadMoreFooter == null){
+            if(pageLoader == null){
+                return;
+            }
 
-                break;
+            loadMoreFooter = new LoadMoreFooter(this);
+            loadMoreFooter.setPrefetchDistance(prefetchDistance);
+            addFooterView(loadMoreFooter.getView());
         }
 
-        return super.onTouchEvent(event);
+        loadMoreFooter.setPageLoader(pageLoader);
     }
 
-    private void bounceBackHeader(){
-        int yTranslate = state == State.REFRESHING ?
-                header.getHeight() - headerContainer.getHeight() :
-                -headerContainer.getHeight() - headerContainer.getTop() + getPaddingTop();;
-
-        TranslateAnimation bounceAnimation = new TranslateAnimation(
-                TranslateAnimation.ABSOLUTE, 0,
-                TranslateAnimation.ABSOLUTE, 0,
-                TranslateAnimation.ABSOLUTE, 0,
-                TranslateAnimation.ABSOLUTE, yTranslate);
-
-        bounceAnimation.setDuration(BOUNCE_ANIMATION_DURATION);
-        bounceAnimation.setFillEnabled(true);
-        bounceAnimation.setFillAfter(false);
-        bounceAnimation.setFillBefore(true);
-        bounceAnimation.setInterpolator(new OvershootInterpolator(BOUNCE_OVERSHOOT_TENSION));
-        bounceAnimation.setAnimationListener(new HeaderAnimationListener(yTranslate));
+    /**
+     * Activate a SnapshotCodec to keep the items of the list between runs. Every time a
+     * refresh completes, the items of the PullToRefreshAdapter are written to a snapshot
+     * in the cache directory, together with the last-updated time; items that are still
+     * being diffed by submitItems(..) are written once they are shown. When the list is
+     * attached with an empty adapter, the snapshot is shown right away and a refresh
+     * is started to revalidate it. Requires a PullToRefreshAdapter.
+     *
+     * @param name          The name of the snapshot, unique within the app
+     * @param snapshotCodec The SnapshotCodec, or null to stop keeping snapshots
+     */
+    public void setSnapshotCodec(String name, SnapshotCodec<?> snapshotCodec){
+        if(snapshotCodec == null){
+            snapshotStore = null;
+            return;
+        }
 
-        startAnimation(bounceAnimation);
+        File file = new File(getContext().getCacheDir(), "ptr-snapshot-" + name);
+        snapshotStore = new SnapshotStore(file, snapshotCodec, snapshotMaxAge, snapshotMaxSize);
+        snapshotRestored = false;
     }
 
-    private void resetHeader(){
-        if(getFirstVisiblePosition() > 0){
-            setHeaderPadding(-header.getHeight());
-            setState(State.PULL_TO_REFRESH);
-            return;
+    /**
+     * Default is one day. Older snapshots are not shown.
+     *
+     * @param maxAgeMillis The maximum age in milliseconds
+     */
+    public void setSnapshotMaxAge(long maxAgeMillis){
+        snapshotMaxAge = maxAgeMillis;
+        if(snapshotStore != null){
+            snapshotStore.setMaxAge(maxAgeMillis);
         }
+    }
 
-        if(getAnimation() != null && !getAnimation().hasEnded()){
-            bounceBackHeader = true;
-        }else{
-            bounceBackHeader();
+    /**
+     * Default is 256 KiB. Items that do not fit are left out of the snapshot, the first
+     * items are kept.
+     *
+     * @param maxBytes The maximum size of a snapshot in bytes
+     */
+    public void setSnapshotMaxSize(int maxBytes){
+        snapshotMaxSize = maxBytes;
+        if(snapshotStore != null){
+            snapshotStore.setMaxBytes(maxBytes);
         }
     }
 
-    private void setUiRefreshing(){
-        spinner.setVisibility(View.VISIBLE);
-        image.clearAnimation();
-        image.setVisibility(View.INVISIBLE);
-        text.setText(refreshingText);
+    /**
+     * Default is 5. The next page is loaded when the last visible row is at most
+     * this many rows away from the last item. Only used once a PageLoader is set with
+     * setPageLoader(..), which may be called before or after this.
+     *
+     * @param prefetchDistance The distance in rows
+     */
+    public void setPrefetchDistance(int prefetchDistance){
+        this.prefetchDistance = prefetchDistance;
+        if(loadMoreFooter != null){
+            loadMoreFooter.setPrefetchDistance(prefetchDistance);
+        }
     }
 
-    private void setState(State state){
-        this.state = state;
-        switch(state){
-            case PULL_TO_REFRESH:
-                spinner.setVisibility(View.INVISIBLE);
-                image.setVisibility(View.VISIBLE);
-                text.setText(pullToRefreshText);
-
-                if(showLastUpdatedText && lastUpdated != -1){
-                    lastUpdatedTextView.setVisibility(View.VISIBLE);
-                    lastUpdatedTextView.setText(String.format(lastUpdatedText, lastUpdatedDateFormat.format(new Date(lastUpdated))));
+    /**
+     * Default is true. When lazyHeaderInflation is true, a placeholder stands in
+     * for the header until the list is pulled or setRefreshing() is called for
+     * the first time. Set it to false to inflate the header now; once inflated,
+     * the header stays.
+     *
+     * @param lazyHeaderInflation
+     */
+    public void setLazyHeaderInflation(boolean lazyHeaderInflation){
+        if(!lazyHeaderInflation){
+            ensureHeader();
+        }
+    }
+
+    /**
+     * Default is false. When overlayHeader is set to true, the header is not added
+     * to the list as a header view. It is drawn over the top of the list instead,
+     * and the rows are moved down by the pull and by extra top padding while
+     * refreshing. The adapter is then used directly, without a HeaderViewListAdapter
+     * around it (unless other header or footer views are added).
+     * <p/>
+     * Must be called before setAdapter(..). The header view is not attached to
+     * the window, so it must draw from its own state: CanvasHeaderRenderer is used
+     * unless another HeaderRenderer is set. The spinner of a LayoutHeaderRenderer
+     * does not animate in this mode.
+     *
+     * @param overlayHeader
+     */
+    public void setOverlayHeader(boolean overlayHeader){
+        if(getAdapter() != null){
+            throw new IllegalStateException("setOverlayHeader(..) must be called before setAdapter(..)");
+        }
+        if(this.overlayHeader == overlayHeader){
+            return;
+        }
+
+        this.overlayHeader = overlayHeader;
+        if(overlayHeader){
+            removeHeaderView(headerContainer);
+        }else{
+            setOverlayPadding(0);
+            addHeaderView(headerContainer);
+        }
+
+        measuredHeaderWidth = -1;
+        setHeaderPadding(committedHeaderPadding);
+        requestLayout();
+    }
+
+    /**
+     * Default is a LayoutHeaderRenderer, which inflates the header from
+     * R.layout.ptr_header_content. A CanvasHeaderRenderer draws the header
+     * in a single view instead. See HeaderRenderer.
+     *
+     * @param headerRenderer The renderer
+     */
+    public void setHeaderRenderer(HeaderRenderer headerRenderer){
+        this.headerRenderer = headerRenderer;
+
+        // Replace a header that was already created
+        if(header != null){
+            headerContainer.removeView(header);
+            header = null;
+            ensureHeader();
+        }
+    }
+
+    /**
+     * @return If the list is in 'Refreshing' state
+     */
+    public boolean isRefreshing(){
+        return stateMachine.isRefreshing();
+    }
+
+    /**
+     * Default is false. When lockScrollWhileRefreshing is set to true, the list
+     * cannot scroll when in 'refreshing' mode. It's 'locked' on refreshing.
+     *
+     * @param lockScrollWhileRefreshing
+     */
+    public void setLockScrollWhileRefreshing(boolean lockScrollWhileRefreshing){
+        this.lockScrollWhileRefreshing = lockScrollWhileRefreshing;
+    }
+
+    /**
+     * Default is false. When preserveScrollAnchor is set to true and the list is
+     * scrolled away from the top, items that a PullToRefreshAdapter inserts above
+     * the visible rows do not move them: the first visible row keeps its position
+     * on screen. At the top of the list, new items are always shown.
+     *
+     * @param preserveScrollAnchor
+     */
+    public void setPreserveScrollAnchor(boolean preserveScrollAnchor){
+        this.preserveScrollAnchor = preserveScrollAnchor;
+    }
+
+    boolean isPreservingScrollAnchor(){
+        return preserveScrollAnchor;
+    }
+
+    /**
+     * Default is false. Show the last-updated date/time in the 'Pull ro Refresh'
+     * header. See 'setLastUpdatedDateFormat' to set the date/time formatting.
+     *
+     * @param showLastUpdatedText
+     */
+    public void setShowLastUpdatedText(boolean showLastUpdatedText){
+        this.showLastUpdatedText = showLastUpdatedText;
+        if(!showLastUpdatedText && header != null){
+            lastUpdatedShown = null;
+            headerRenderer.onLastUpdatedChanged(null);
+        }
+        updateTicker();
+    }
+
+    /**
+     * Default: false. Show the last-updated time relative to now ("Updated: 2 min ago")
+     * instead of as a date. The text is kept current while the header is on screen.
+     * Meaningless if 'showLastUpdatedText == false (default)'.
+     *
+     * @param lastUpdatedRelative True to show a relative time
+     */
+    public void setLastUpdatedRelative(boolean lastUpdatedRelative){
+        this.lastUpdatedRelative = lastUpdatedRelative;
+        if(header != null && showLastUpdatedText && lastUpdated != -1){
+            showLastUpdated();
+        }
+        updateTicker();
+    }
+
+    /**
+     * Default: "dd/MM HH:mm". Set the format in which the last-updated
+     * date/time is shown. Meaningless if 'showLastUpdatedText == false (default)'.
+     * See 'setShowLastUpdatedText'.
+     *
+     * @param lastUpdatedDateFormat
+     */
+    public void setLastUpdatedDateFormat(SimpleDateFormat lastUpdatedDateFormat){
+        this.lastUpdatedDateFormat = lastUpdatedDateFormat;
+        if(lastUpdatedFormatter != null){
+            lastUpdatedFormatter.setDateFormat(lastUpdatedDateFormat);
+        }
+    }
+
+    /**
+     * Explicitly set the state to refreshing. This
+     * is useful when you want to show the spinner and 'Refreshing' text when
+     * the refresh was not triggered by 'pull to refresh', for example on start.
+     * <p/>
+     * When a RefreshTask is set, it is started as well. An OnRefreshListener is
+     * not called. Calls while the list is refreshing already are ignored, and so
+     * are calls that the RefreshPolicy declines, if one is set.
+     */
+    public void setRefreshing(){
+        if(isRefreshAllowed()){
+            showRefreshing(false);
+        }
+    }
+
+    /**
+     * Shows the header as refreshing and starts the RefreshTask, if set. Does nothing
+     * while a refresh is running already.
+     *
+     * @param startListener True to call the OnRefreshListener if there is no RefreshTask
+     */
+    private void showRefreshing(boolean startListener){
+        if(stateMachine.isRefreshing()){
+            return;
+        }
+
+        ensureHeader();
+        abortSettle();
+        stateMachine.startRefresh();
+        scrollTo(0, 0);
+        setUiRefreshing();
+        setHeaderPadding(0);
+        onRefreshStarted(false);
+
+        if(refreshTask != null){
+            refreshPipeline.start(refreshTask);
+        }else if(startListener && onRefreshListener != null){
+            refreshPipeline.start(onRefreshListener);
+        }
+    }
+
+    /**
+     * Starts a refresh for the OnRefreshListener, unless one is running or the
+     * RefreshPolicy declines it. Used by the RefreshCoordinator.
+     */
+    void startRefresh(){
+        if(!stateMachine.isRefreshing() && isRefreshAllowed()){
+            showRefreshing(true);
+        }
+    }
+
+    /**
+     * Ends the refresh that is running for the OnRefreshListener as failed. Used by the
+     * RefreshCoordinator, whose fetches fail outside of the refresh pipeline.
+     */
+    void onRefreshFailed(){
+        if(refreshPipeline.isInFlight()){
+            refreshPipeline.finish();
+            refreshStats.onRefreshFailed();
+            endFailedRefresh();
+        }
+    }
+
+    /**
+     * The producer cancelled the stream, the refresh ends as neither a success nor a failure.
+     */
+    void onRefreshStreamCancelled(RefreshStream<?> stream){
+        if(stream != refreshStream){
+            return;
+        }
+
+        detachRefreshStream();
+        refreshPipeline.finish();
+        refreshStats.onRefreshCancelled();
+        if(refreshPolicy != null){
+            refreshPolicy.onRefreshCancelled();
+            schedulePeriodicRefresh();
+        }
+
+        stateMachine.finishRefresh();
+        resetHeader();
+
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onRefreshEnded();
+        }
+    }
+
+    private void detachRefreshStream(){
+        if(refreshStream != null){
+            refreshStream.detach();
+            refreshStream = null;
+        }
+    }
+
+    private void endFailedRefresh(){
+        detachRefreshStream();
+        stateMachine.finishRefresh();
+        resetHeader();
+
+        if(refreshPolicy != null){
+            refreshPolicy.onRefreshFailed();
+            schedulePeriodicRefresh();
+        }
+
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onRefreshEnded();
+        }
+    }
+
+    private boolean isRefreshAllowed(){
+        return refreshPolicy == null || refreshPolicy.decide(false) == RefreshPolicy.Decision.REFRESH;
+    }
+
+    private void onRefreshStarted(boolean pull){
+        refreshStats.onRefreshStarted(pull);
+        if(refreshPolicy != null){
+            refreshPolicy.onRefreshStarted();
+        }
+        if(pull && pullMetricsRecorder != null){
+            pullMetricsRecorder.onRefreshStarted();
+        }
+    }
+
+    /**
+     * Set the state back to 'pull to refresh'. Call this method when refreshing
+     * the data is finished.
+     */
+    public void onRefreshComplete(){
+        refreshPipeline.finish();
+        detachRefreshStream();
+        refreshStats.onRefreshCompleted();
+        if(loadMoreFooter != null){
+            loadMoreFooter.reset();
+        }
+        if(pagedAdapter != null){
+            // The refreshed data is loaded page by page, starting with the visible ones
+            pagedAdapter.invalidate();
+        }
+
+        stateMachine.finishRefresh();
+        resetHeader();
+        lastUpdated = System.currentTimeMillis();
+
+        writeSnapshot();
+        if(refreshPolicy != null){
+            refreshPolicy.onRefreshSucceeded();
+            schedulePeriodicRefresh();
+        }
+
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onRefreshEnded();
+        }
+
+        startRowPrefetch();
+    }
+
+    /**
+     * Set the state back to 'pull to refresh' once the new items are shown.
+     * The items are passed to the PullToRefreshAdapter of this list, which
+     * only binds the rows of items that changed. See
+     * PullToRefreshAdapter.submitItems(..).
+     *
+     * @param items The new items. The list must not be modified afterwards.
+     */
+    @SuppressWarnings("unchecked")
+    public void onRefreshComplete(List<?> items){
+        if(pullToRefreshAdapter == null){
+            throw new IllegalStateException("onRefreshComplete(List) requires a PullToRefreshAdapter");
+        }
+
+        if(refreshCompleteRunnable == null){
+            refreshCompleteRunnable = new Runnable(){
+
+                @Override
+                public void run(){
+                    onRefreshComplete();
+                }
+            };
+        }
+        ((PullToRefreshAdapter<Object>) pullToRefreshAdapter).submitItems((List<Object>) items, refreshCompleteRunnable);
+    }
+
+    /**
+     * Change the label text on state 'Pull to Refresh'
+     *
+     * @param pullToRefreshText Text
+     */
+    public void setTextPullToRefresh(String pullToRefreshText){
+        this.pullToRefreshText = pullToRefreshText;
+        if(stateMachine.getState() == State.PULL_TO_REFRESH && header != null){
+            updateHeader(false);
+        }
+    }
+
+    /**
+     * Change the label text on state 'Release to Refresh'
+     *
+     * @param releaseToRefreshText Text
+     */
+    public void setTextReleaseToRefresh(String releaseToRefreshText){
+        this.releaseToRefreshText = releaseToRefreshText;
+        if(stateMachine.getState() == State.RELEASE_TO_REFRESH && header != null){
+            updateHeader(false);
+        }
+    }
+
+    /**
+     * Change the label text on state 'Refreshing'
+     *
+     * @param refreshingText Text
+     */
+    public void setTextRefreshing(String refreshingText){
+        this.refreshingText = refreshingText;
+        if(stateMachine.getState() == State.REFRESHING && header != null){
+            updateHeader(false);
+        }
+    }
+
+    private void init(){
+        setVerticalFadingEdgeEnabled(false);
+
+        // While dragging, the header is revealed with a scroll offset instead of a new margin.
+        // It then draws outside of its (collapsed) container, so children may not be clipped.
+        setClipChildren(false);
+
+        // Only the (empty) container is inflated here, see ensureHeader()
+        headerContainer = (LinearLayout) LayoutInflater.from(getContext()).inflate(R.layout.ptr_header, null);
+
+        settleScroller = new Scroller(getContext(), new OvershootInterpolator(BOUNCE_OVERSHOOT_TENSION));
+        refreshPipeline = new RefreshPipeline(new PTRRefreshPipelineListener());
+
+        addHeaderView(headerContainer);
+        scrollbarEnabled = isVerticalScrollBarEnabled();
+
+        super.setOnItemClickListener(new PTROnItemClickListener());
+        super.setOnScrollListener(new PTROnScrollListener());
+        super.setOnItemLongClickListener(new PTROnItemLongClickListener());
+    }
+
+    /**
+     * Inflates the header with its strings and animations, unless that already
+     * happened. Called on the first pull and the first setRefreshing(), so lists
+     * that are never pulled do not pay for it.
+     */
+    private void ensureHeader(){
+        if(header != null){
+            return;
+        }
+
+        if(headerRenderer == null){
+            headerRenderer = overlayHeader ? new CanvasHeaderRenderer() : new LayoutHeaderRenderer();
+        }
+
+        header = headerRenderer.onCreateView(LayoutInflater.from(getContext()), headerContainer);
+        if(header.getLayoutParams() == null){
+            header.setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams.FILL_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+        }
+        headerContainer.addView(header);
+
+        // Texts that were set before the header existed are kept
+        if(pullToRefreshText == null){
+            pullToRefreshText = getContext().getString(R.string.ptr_pull_to_refresh);
+        }
+        if(releaseToRefreshText == null){
+            releaseToRefreshText = getContext().getString(R.string.ptr_release_to_refresh);
+        }
+        if(refreshingText == null){
+            refreshingText = getContext().getString(R.string.ptr_refreshing);
+        }
+        String lastUpdatedTemplate = getContext().getString(R.string.ptr_last_updated);
+        lastUpdatedFormatter = new LastUpdatedFormatter(lastUpdatedTemplate, lastUpdatedDateFormat);
+        relativeTimeFormatter = new RelativeTimeFormatter(getResources(), lastUpdatedTemplate);
+        lastUpdatedShown = null;
+
+        measuredHeaderWidth = -1;
+        updateHeader(false);
+
+        // The header height is needed right away by the pull that caused the inflation
+        measureHeader(getWidth() - getPaddingLeft() - getPaddingRight());
+    }
+
+    private void setHeaderPadding(int padding){
+        if(pullMetricsRecorder == null){
+            applyHeaderPadding(padding);
+            return;
+        }
+
+        PullMetricsRecorder.beginSection("PullToRefresh#setHeaderPadding");
+        try{
+            applyHeaderPadding(padding);
+        }finally{
+            PullMetricsRecorder.endSection();
+        }
+    }
+
+    private void applyHeaderPadding(int padding){
+        headerPadding = padding;
+        committedHeaderPadding = padding;
+
+        if(headerOffset != 0){
+            headerOffset = 0;
+            scrollTo(0, 0);
+        }
+        restoreOverScrollMode();
+
+        // The rows below an overlay header are moved by padding instead of by the header margin
+        if(overlayHeader){
+            setOverlayPadding(Math.max(0, padding + headerHeight));
+            dispatchPullProgress();
+            return;
+        }
+
+        if(header == null){
+            return;
+        }
+
+        MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) header.getLayoutParams();
+        mlp.setMargins(0, Math.round(padding), 0, 0);
+        header.setLayoutParams(mlp);
+
+        dispatchPullProgress();
+    }
+
+    /**
+     * Moves the header to the given padding without requesting a layout. The header
+     * margin keeps its committed value and the difference is applied as a scroll offset
+     * of the list, which moves the header and the content together. The offset is turned
+     * into a margin by setHeaderPadding(..) once the header has settled.
+     *
+     * @param padding The visual header padding
+     */
+    private void offsetHeader(int padding){
+        headerPadding = padding;
+        headerOffset = padding - committedHeaderPadding;
+
+        // The list reports its own over-scroll through scrollY, which would fight with the offset
+        if(overScrollMode == -1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD){
+            overScrollMode = getOverScrollMode();
+            setOverScrollMode(OVER_SCROLL_NEVER);
+        }
+
+        scrollTo(0, -headerOffset);
+        dispatchPullProgress();
+
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onHeaderMoved();
+        }
+    }
+
+    private void setOverlayPadding(int overlayPadding){
+        if(overlayPadding != this.overlayPadding){
+            setPadding(getPaddingLeft(), getPaddingTop() - this.overlayPadding + overlayPadding, getPaddingRight(), getPaddingBottom());
+            this.overlayPadding = overlayPadding;
+        }
+    }
+
+    /**
+     * @return True if the top of the list (the header, or the first row of an overlay header) is shown
+     */
+    boolean isScrolledToTop(){
+        if(getFirstVisiblePosition() > 0){
+            return false;
+        }
+
+        return !overlayHeader || getChildCount() == 0 || getChildAt(0).getTop() >= getPaddingTop();
+    }
+
+    private void dispatchPullProgress(){
+        if(header != null && headerHeight > 0){
+            headerRenderer.onPullProgress(PullPhysics.progress(headerPadding, headerHeight));
+        }
+        updateTicker();
+    }
+
+    private void restoreOverScrollMode(){
+        if(overScrollMode != -1){
+            setOverScrollMode(overScrollMode);
+            overScrollMode = -1;
+        }
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event){
+        // Prefetching would compete with the gesture for the UI thread
+        if(rowPrefetcher != null && event.getAction() == MotionEvent.ACTION_DOWN){
+            rowPrefetcher.cancel();
+        }
+
+        return super.dispatchTouchEvent(event);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event){
+        if(pullMetricsRecorder == null){
+            return handleTouchEvent(event);
+        }
+
+        PullMetricsRecorder.beginSection("PullToRefresh#onTouchEvent");
+        try{
+            return handleTouchEvent(event);
+        }finally{
+            PullMetricsRecorder.endSection();
+        }
+    }
+
+    private boolean handleTouchEvent(MotionEvent event){
+        if(lockScrollWhileRefreshing
+                && (stateMachine.isRefreshing() || !settleScroller.isFinished())){
+            return true;
+        }
+
+        switch(event.getAction()){
+            case MotionEvent.ACTION_DOWN:
+                if(pullMetricsRecorder != null){
+                    pullMetricsRecorder.onGestureStart();
+                }
+
+                // Catch the header where it is, a new pull continues from the current offset
+                abortSettle();
+                pendingHeaderPadding = headerPadding;
+
+                if(isScrolledToTop()){
+                	previousY = event.getY();
+                }
+                else {
+                	previousY = -1;
+                }
+                
+                // Remember where have we started
+                mScrollStartY = event.getY();
+                
+                break;
+
+            case MotionEvent.ACTION_UP:
+                // Samples still waiting for the next frame are part of this gesture
+                if(headerFrameScheduled){
+                    cancelHeaderFrame();
+                    applyHeaderFrame();
+                }
+
+                if(previousY != -1 && (stateMachine.getState() == State.RELEASE_TO_REFRESH || isScrolledToTop())){
+                    switch(stateMachine.getState()){
+                        case RELEASE_TO_REFRESH:
+                            stateMachine.onRelease();
+                            dispatchState();
+                            bounceBackHeader();
+
+                            break;
+
+                        case PULL_TO_REFRESH:
+                            resetHeader();
+                            break;
+                    }
+                }
+
+                // An interrupted settle has left the header somewhere in between
+                if(headerOffset != 0 && settleScroller.isFinished()){
+                    bounceBackHeader();
+                }
+
+                if(pullMetricsRecorder != null){
+                    pullMetricsRecorder.onGestureEnd();
+                }
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if(previousY != -1 && isScrolledToTop()){
+                    if(header == null && event.getY() > mScrollStartY){
+                        ensureHeader();
+                        pendingHeaderPadding = headerPadding;
+                    }
+
+                    // Fold every sample since the last event into the pending padding. The header
+                    // itself is moved once per frame, see applyHeaderFrame().
+                    int historySize = event.getHistorySize();
+                    for(int i = 0; i < historySize; i++){
+                        trackPullSample(event.getHistoricalY(i));
+                    }
+                    trackPullSample(event.getY());
+
+                    if(Math.round(pendingHeaderPadding) != headerPadding){
+                        if(pullMetricsRecorder != null){
+                            pullMetricsRecorder.onPullSample(event.getEventTime());
+                        }
+                        scheduleHeaderFrame();
+                    }
+                }
+
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                cancelHeaderFrame();
+
+                if(headerOffset != 0 && settleScroller.isFinished()){
+                    bounceBackHeader();
+                }
+
+                if(pullMetricsRecorder != null){
+                    pullMetricsRecorder.onGestureEnd();
+                }
+                break;
+        }
+
+        return super.onTouchEvent(event);
+    }
+
+    private void trackPullSample(float y){
+        if(!pullPhysics.isPulling(mScrollStartY, y)){
+            return;
+        }
+
+        if(!stateMachine.isRefreshing()){
+            pendingHeaderPadding = pullPhysics.pull(pendingHeaderPadding, y - previousY, headerHeight);
+        }
+        previousY = y;
+    }
+
+    /**
+     * Requests a single header update for the next frame. On Jelly Bean and up this is
+     * aligned with vsync through the Choreographer, older versions fall back to a
+     * message on the UI thread.
+     */
+    private void scheduleHeaderFrame(){
+        if(headerFrameScheduled){
+            return;
+        }
+
+        headerFrameScheduled = true;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            if(headerFrameCallback == null){
+                headerFrameCallback = new PTRFrameCallback();
+            }
+            Choreographer.getInstance().postFrameCallback(headerFrameCallback);
+        }else{
+            if(headerFrameRunnable == null){
+                headerFrameRunnable = new Runnable(){
+
+                    @Override
+                    public void run(){
+                        headerFrameScheduled = false;
+                        applyHeaderFrame();
+                    }
+                };
+            }
+            post(headerFrameRunnable);
+        }
+    }
+
+    private void cancelHeaderFrame(){
+        if(!headerFrameScheduled){
+            return;
+        }
+
+        headerFrameScheduled = false;
+        if(headerFrameCallback != null){
+            Choreographer.getInstance().removeFrameCallback(headerFrameCallback);
+        }
+        if(headerFrameRunnable != null){
+            removeCallbacks(headerFrameRunnable);
+        }
+    }
+
+    private void applyHeaderFrame(){
+        int newHeaderPadding = Math.round(pendingHeaderPadding);
+
+        if(newHeaderPadding != headerPadding && !stateMachine.isRefreshing()){
+            offsetHeader(newHeaderPadding);
+
+            if(stateMachine.onPull(headerPadding)){
+                updateHeader(true);
+            }
+        }
+    }
+
+    /**
+     * Settles the header at its resting position for the current state: fully shown when
+     * refreshing, hidden otherwise. The header is moved with the same scroll offset as a
+     * drag, advanced by settleScroller on every frame in computeScroll(), so neither the
+     * list nor its parent is resized. The margin is committed once the header has settled.
+     * Calling this while a settle is running retargets it from the current offset.
+     */
+    private void bounceBackHeader(){
+        if(pullMetricsRecorder == null){
+            startSettle();
+            return;
+        }
+
+        PullMetricsRecorder.beginSection("PullToRefresh#bounceBackHeader");
+        try{
+            startSettle();
+        }finally{
+            PullMetricsRecorder.endSection();
+        }
+    }
+
+    private void startSettle(){
+        int target = stateMachine.getRestingPadding(headerHeight);
+
+        stateAtSettleStart = stateMachine.getState();
+        settleScroller.forceFinished(true);
+
+        if(target == headerPadding){
+            finishSettle(target);
+            return;
+        }
+
+        if(scrollbarEnabled){
+            setVerticalScrollBarEnabled(false);
+        }
+
+        settleScroller.startScroll(0, headerPadding, 0, target - headerPadding, BOUNCE_ANIMATION_DURATION);
+        invalidate();
+
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onSettleStart();
+        }
+    }
+
+    @Override
+    public void computeScroll(){
+        super.computeScroll();
+
+        if(!settleScroller.isFinished() && settleScroller.computeScrollOffset()){
+            if(settleScroller.isFinished()){
+                finishSettle(settleScroller.getFinalY());
+            }else{
+                offsetHeader(settleScroller.getCurrY());
+                invalidate();
+            }
+        }
+    }
+
+    private void finishSettle(int padding){
+        if(padding != committedHeaderPadding || headerOffset != 0){
+            setHeaderPadding(padding);
+        }
+
+        if(scrollbarEnabled){
+            setVerticalScrollBarEnabled(true);
+        }
+
+        if(stateAtSettleStart != State.REFRESHING){
+            stateMachine.finishRefresh();
+            dispatchState();
+            startRowPrefetch();
+        }
+
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onSettleEnd();
+        }
+    }
+
+    /**
+     * Stops a running settle, leaving the header at its current offset.
+     */
+    private void abortSettle(){
+        if(!settleScroller.isFinished()){
+            settleScroller.forceFinished(true);
+
+            if(scrollbarEnabled){
+                setVerticalScrollBarEnabled(true);
+            }
+        }
+    }
+
+    private void resetHeader(){
+        if(!isScrolledToTop()){
+            abortSettle();
+            setHeaderPadding(-headerHeight);
+            stateMachine.finishRefresh();
+            dispatchState();
+            return;
+        }
+
+        bounceBackHeader();
+    }
+
+    private void setUiRefreshing(){
+        if(header != null){
+            headerRenderer.onRefreshing(refreshingText);
+        }
+    }
+
+    /**
+     * Shows the state the state machine is in and starts the refresh if it went to
+     * 'Refreshing'.
+     */
+    private void dispatchState(){
+        if(pullMetricsRecorder == null){
+            applyState();
+            return;
+        }
+
+        PullMetricsRecorder.beginSection("PullToRefresh#dispatchState");
+        try{
+            applyState();
+        }finally{
+            PullMetricsRecorder.endSection();
+        }
+    }
+
+    private void applyState(){
+        if(stateMachine.isRefreshing() && refreshPolicy != null){
+            switch(refreshPolicy.decide(true)){
+                case SKIP:
+                    stateMachine.finishRefresh();
+                    break;
+
+                case SERVE_FROM_CACHE:
+                    // Shown as refreshing for a moment, the items and lastUpdated stay as they are
+                    updateHeader(false);
+                    servingFromCache = true;
+                    postDelayed(getServedFromCacheRunnable(), SERVED_FROM_CACHE_DURATION);
+                    return;
+            }
+        }
+
+        updateHeader(false);
+
+        if(stateMachine.isRefreshing()){
+            lastUpdated = System.currentTimeMillis();
+            if(refreshTask != null){
+                onRefreshStarted(true);
+                refreshPipeline.start(refreshTask);
+            }else if(onRefreshListener != null){
+                onRefreshStarted(true);
+                refreshPipeline.start(onRefreshListener);
+            }else{
+                stateMachine.finishRefresh();
+                updateHeader(false);
+            }
+        }
+    }
+
+    /**
+     * Shows the current state in the header, if it was created.
+     *
+     * @param animate True if the state changed while the header is being dragged
+     */
+    private void updateHeader(boolean animate){
+        if(header == null){
+            return;
+        }
+
+        switch(stateMachine.getState()){
+            case PULL_TO_REFRESH:
+                headerRenderer.onPullToRefresh(pullToRefreshText, animate);
+
+                if(showLastUpdatedText && lastUpdated != -1){
+                    showLastUpdated();
                 }
 
                 break;
 
             case RELEASE_TO_REFRESH:
-                spinner.setVisibility(View.INVISIBLE);
-                image.setVisibility(View.VISIBLE);
-                text.setText(releaseToRefreshText);
+                headerRenderer.onReleaseToRefresh(releaseToRefreshText, animate);
                 break;
 
             case REFRESHING:
                 setUiRefreshing();
+                break;
+        }
 
-                lastUpdated = System.currentTimeMillis();
-                if(onRefreshListener == null){
-                    setState(State.PULL_TO_REFRESH);
-                }else{
-                    onRefreshListener.onRefresh();
-                }
+        // Changes to an overlay header do not reach the list by themselves
+        if(overlayHeader){
+            if(headerRenderer.getMeasureKey() != measuredHeaderKey){
+                requestLayout();
+            }
+            invalidate();
+        }
+    }
 
-                break;
+    /**
+     * Passes the last-updated text to the renderer if it changed. Both formatters return
+     * the same String for as long as the text stays the same.
+     */
+    private void showLastUpdated(){
+        String text = lastUpdatedRelative
+                ? relativeTimeFormatter.format(lastUpdated, System.currentTimeMillis())
+                : lastUpdatedFormatter.format(lastUpdated);
+
+        if(text != lastUpdatedShown){
+            lastUpdatedShown = text;
+            headerRenderer.onLastUpdatedChanged(text);
+        }
+    }
+
+    /**
+     * Registers with the LastUpdatedTicker while a relative last-updated text is on screen,
+     * and unregisters otherwise. Called whenever the header moves or the list scrolls.
+     */
+    private void updateTicker(){
+        boolean visible = lastUpdatedRelative && showLastUpdatedText && lastUpdated != -1 && header != null
+                && getWindowToken() != null && getFirstVisiblePosition() == 0 && headerPadding > -headerHeight;
+        if(visible == tickerRegistered){
+            return;
+        }
+
+        tickerRegistered = visible;
+        if(visible){
+            if(tickListener == null){
+                tickListener = new PTRTickListener();
+            }
+            LastUpdatedTicker.register(tickListener);
+
+            // Minutes may have passed while the header was hidden
+            showLastUpdated();
+        }else{
+            LastUpdatedTicker.unregister(tickListener);
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec){
+        measureHeader(MeasureSpec.getSize(widthMeasureSpec) - getPaddingLeft() - getPaddingRight());
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    /**
+     * Measures the header when its width or configuration (see
+     * HeaderRenderer.getMeasureKey()) changed since it was last measured, and collapses it to the new
+     * height. This runs before the list measures its children, so the header is
+     * already collapsed in the first layout.
+     *
+     * @param width The width available to the header
+     */
+    private void measureHeader(int width){
+        if(header == null || width <= 0){
+            return;
+        }
+
+        int key = headerRenderer.getMeasureKey();
+        if(width == measuredHeaderWidth && key == measuredHeaderKey){
+            return;
+        }
+
+        measuredHeaderWidth = width;
+        measuredHeaderKey = key;
+
+        header.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        headerHeight = header.getMeasuredHeight();
+
+        // An overlay header has no parent to lay it out
+        if(overlayHeader){
+            header.layout(0, 0, width, headerHeight);
+        }
+
+        // Only a header at rest is collapsed, a dragged or settling one keeps its position
+        if(!stateMachine.isRefreshing() && headerOffset == 0 && settleScroller.isFinished()){
+            setHeaderPadding(-headerHeight);
+        }
+    }
+
+    @Override
+    protected void layoutChildren(){
+        if(refreshStream == null){
+            super.layoutChildren();
+            return;
+        }
+
+        // Binding the rows of a streamed chunk counts towards its frame budget
+        long start = System.nanoTime();
+        super.layoutChildren();
+        refreshStream.onLayout(System.nanoTime() - start);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b){
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.onLayout();
+        }
+
+        super.onLayout(changed, l, t, r, b);
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas){
+        super.dispatchDraw(canvas);
+
+        if(overlayHeader && header != null && headerHeight > 0 && getFirstVisiblePosition() == 0){
+            drawOverlayHeader(canvas);
+        }
+    }
+
+    /**
+     * Draws the overlay header right above the first row, where a header view would be.
+     */
+    private void drawOverlayHeader(Canvas canvas){
+        int bottom = getChildCount() > 0 ? getChildAt(0).getTop() : getPaddingTop();
+        int top = bottom - headerHeight;
+        int left = getPaddingLeft();
+
+        canvas.save();
+        canvas.translate(left, top);
+        header.draw(canvas);
+        canvas.restore();
+
+        // Nothing else tells the list that the spinner moved, it is drawn again at the spinner frame rate
+        if(stateMachine.isRefreshing() && !spinnerFramePosted){
+            if(spinnerFrameRunnable == null){
+                spinnerFrameRunnable = new Runnable(){
+
+                    @Override
+                    public void run(){
+                        spinnerFramePosted = false;
+                        if(stateMachine.isRefreshing()){
+                            invalidateOverlayHeader();
+                        }
+                    }
+                };
+            }
+            spinnerFramePosted = true;
+            postDelayed(spinnerFrameRunnable, OVERLAY_SPINNER_FRAME_INTERVAL);
+        }
+    }
+
+    private void invalidateOverlayHeader(){
+        if(header == null || getFirstVisiblePosition() != 0){
+            return;
+        }
+
+        int bottom = getChildCount() > 0 ? getChildAt(0).getTop() : getPaddingTop();
+        invalidate(getPaddingLeft(), bottom - headerHeight, getPaddingLeft() + header.getWidth(), bottom);
+    }
+
+    private void cancelSpinnerFrame(){
+        if(spinnerFramePosted){
+            spinnerFramePosted = false;
+            removeCallbacks(spinnerFrameRunnable);
         }
     }
 
@@ -416,86 +1696,283 @@ public class PullToRefreshListView extends ListView{
     protected void onScrollChanged(int l, int t, int oldl, int oldt){
         super.onScrollChanged(l, t, oldl, oldt);
 
-        if(!hasResetHeader){
-            if(measuredHeaderHeight > 0 && state != State.REFRESHING){
-                setHeaderPadding(-measuredHeaderHeight);
+        if(!hasResetHeader && headerOffset == 0){
+            if(headerHeight > 0 && !stateMachine.isRefreshing()){
+                setHeaderPadding(-headerHeight);
             }
 
             hasResetHeader = true;
         }
     }
 
-    private class HeaderAnimationListener implements AnimationListener{
+    @Override
+    protected void onAttachedToWindow(){
+        super.onAttachedToWindow();
+        restoreReleasedAdapter();
+        restoreSnapshot();
+        updateTicker();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility){
+        super.onWindowVisibilityChanged(visibility);
 
-        private int height, translation;
-        private State stateAtAnimationStart;
+        windowVisible = visibility == VISIBLE;
+        schedulePeriodicRefresh();
+    }
 
-        public HeaderAnimationListener(int translation){
-            this.translation = translation;
+    /**
+     * (Re)schedules the next periodic refresh of the RefreshPolicy, as long as the
+     * window of the list is visible.
+     */
+    private void schedulePeriodicRefresh(){
+        if(periodicRefreshRunnable != null){
+            removeCallbacks(periodicRefreshRunnable);
         }
 
-        @Override
-        public void onAnimationStart(Animation animation){
-            stateAtAnimationStart = state;
+        if(refreshPolicy == null || !windowVisible || (refreshTask == null && onRefreshListener == null)){
+            return;
+        }
+
+        long delay = refreshPolicy.getPeriodicDelay();
+        if(delay < 0){
+            return;
+        }
 
-            android.view.ViewGroup.LayoutParams lp = getLayoutParams();
-            height = lp.height;
-            lp.height = getHeight() - translation;
-            setLayoutParams(lp);
+        if(periodicRefreshRunnable == null){
+            periodicRefreshRunnable = new Runnable(){
 
-            if(scrollbarEnabled){
-                setVerticalScrollBarEnabled(false);
+                @Override
+                public void run(){
+                    // A refresh that is running reschedules when it ends
+                    if(stateMachine.isRefreshing()){
+                        return;
+                    }
+
+                    if(isRefreshAllowed()){
+                        showRefreshing(true);
+                    }else{
+                        schedulePeriodicRefresh();
+                    }
+                }
+            };
+        }
+        postDelayed(periodicRefreshRunnable, delay);
+    }
+
+    private Runnable getServedFromCacheRunnable(){
+        if(servedFromCacheRunnable == null){
+            servedFromCacheRunnable = new Runnable(){
+
+                @Override
+                public void run(){
+                    servingFromCache = false;
+                    if(stateMachine.isRefreshing() && !refreshPipeline.isInFlight()){
+                        stateMachine.finishRefresh();
+                        resetHeader();
+                        schedulePeriodicRefresh();
+                    }
+                }
+            };
+        }
+
+        return servedFromCacheRunnable;
+    }
+
+    /**
+     * Shows the snapshot if the adapter is still empty, once, and revalidates it with a
+     * refresh. The snapshot is small and memory mapped, so it is read right here.
+     */
+    @SuppressWarnings("unchecked")
+    private void restoreSnapshot(){
+        if(snapshotStore == null || snapshotRestored || pullToRefreshAdapter == null){
+            return;
+        }
+
+        snapshotRestored = true;
+        if(!pullToRefreshAdapter.getItems().isEmpty()){
+            return;
+        }
+
+        SnapshotStore.Snapshot snapshot = snapshotStore.read();
+        if(snapshot == null){
+            return;
+        }
+
+        ((PullToRefreshAdapter<Object>) pullToRefreshAdapter).setItems(snapshot.items);
+        lastUpdated = snapshot.lastUpdated;
+        if(refreshPolicy != null){
+            refreshPolicy.setLastSuccess(lastUpdated);
+        }
+
+        if((refreshTask != null || onRefreshListener != null) && isRefreshAllowed()){
+            showRefreshing(true);
+        }
+    }
+
+    private void writeSnapshot(){
+        if(snapshotStore == null || pullToRefreshAdapter == null){
+            return;
+        }
+
+        // Items handed to submitItems(..) are not shown yet, they are written once committed
+        if(pullToRefreshAdapter.isSubmitPending()){
+            snapshotPending = true;
+            return;
+        }
+
+        snapshotPending = false;
+        snapshotStore.writeAsync(pullToRefreshAdapter.getItems(), lastUpdated, getRefreshExecutor());
+    }
+
+    /**
+     * The PullToRefreshAdapter replaced its items.
+     */
+    void onItemsCommitted(){
+        if(snapshotPending){
+            writeSnapshot();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow(){
+        cancelHeaderFrame();
+        cancelSpinnerFrame();
+        if(tickerRegistered){
+            tickerRegistered = false;
+            LastUpdatedTicker.unregister(tickListener);
+        }
+        if(pullMetricsRecorder != null){
+            pullMetricsRecorder.cancel();
+        }
+        if(servingFromCache){
+            // Ended right away, nothing was refreshed
+            servingFromCache = false;
+            removeCallbacks(servedFromCacheRunnable);
+            abortSettle();
+            setHeaderPadding(-headerHeight);
+            stateMachine.finishRefresh();
+            dispatchState();
+        }
+
+        // A RefreshTask or stream has nobody left to deliver to
+        if((refreshTask != null || refreshStream != null) && refreshPipeline.isInFlight()){
+            detachRefreshStream();
+            refreshStats.onRefreshCancelled();
+            if(refreshPolicy != null){
+                refreshPolicy.onRefreshCancelled();
             }
+            refreshPipeline.finish();
+            abortSettle();
+            setHeaderPadding(-headerHeight);
+            stateMachine.finishRefresh();
+            dispatchState();
         }
 
-        @Override
-        public void onAnimationEnd(Animation animation){
-            setHeaderPadding(stateAtAnimationStart == State.REFRESHING ? 0 : -measuredHeaderHeight - headerContainer.getTop());
-            setSelection(0);
+        if(rowPrefetcher != null){
+            rowPrefetcher.clear();
+        }
+        if(sharedViewPool != null && pullToRefreshAdapter != null){
+            releaseRowsToPool();
+        }
 
-            android.view.ViewGroup.LayoutParams lp = getLayoutParams();
-            lp.height = height;
-            setLayoutParams(lp);
+        super.onDetachedFromWindow();
+    }
 
-            if(scrollbarEnabled){
-                setVerticalScrollBarEnabled(true);
+    /**
+     * Hands the rows on screen to the SharedViewPool. The adapter is taken away first, so
+     * the list removes the rows and drops its scrap itself; restoreReleasedAdapter() sets
+     * it again when the list is attached.
+     */
+    private void releaseRowsToPool(){
+        ArrayList<View> rows = new ArrayList<View>(getChildCount());
+        for(int i = 0; i < getChildCount(); i++){
+            // Only rows of the PullToRefreshAdapter, not the header or footers
+            View child = getChildAt(i);
+            if(child.getTag(R.id.ptr_id_view_type) instanceof Integer){
+                rows.add(child);
+            }
+        }
+
+        releasedPosition = getFirstVisiblePosition();
+        releasedTop = getChildCount() > 0 ? getChildAt(0).getTop() - getPaddingTop() : 0;
+        adapterReleased = true;
+        super.setAdapter(null);
+
+        for(View row : rows){
+            if(row.getParent() == null){
+                sharedViewPool.release(row, (Integer) row.getTag(R.id.ptr_id_view_type));
             }
+        }
+    }
+
+    private void restoreReleasedAdapter(){
+        if(!adapterReleased){
+            return;
+        }
 
-            if(bounceBackHeader){
-                bounceBackHeader = false;
+        adapterReleased = false;
+        super.setAdapter(pullToRefreshAdapter);
+        setSelectionFromTop(releasedPosition, releasedTop);
+    }
 
-                postDelayed(new Runnable(){
+    @Override
+    protected void onOverScrolled(int scrollX, int scrollY, boolean clampedX, boolean clampedY){
+        // The scroll position belongs to the header while it is being dragged
+        if(headerOffset == 0){
+            super.onOverScrolled(scrollX, scrollY, clampedX, clampedY);
+        }
+    }
 
-                    @Override
-                    public void run(){
-                        resetHeader();
-                    }
-                }, BOUNCE_ANIMATION_DELAY);
-            }else if(stateAtAnimationStart != State.REFRESHING){
-                setState(State.PULL_TO_REFRESH);
+    private class PTRRefreshPipelineListener implements RefreshPipeline.Listener{
+
+        @Override
+        public void onRefreshEnded(boolean success){
+            if(success){
+                onRefreshComplete();
+            }else{
+                refreshStats.onRefreshFailed();
+                endFailedRefresh();
             }
         }
 
         @Override
-        public void onAnimationRepeat(Animation animation){}
+        public void onRefreshTimedOut(){
+            refreshStats.onRefreshTimedOut();
+            endFailedRefresh();
+        }
     }
 
-    private class PTROnGlobalLayoutListener implements OnGlobalLayoutListener{
+    private class PTRStreamingRefreshListener implements OnRefreshListener{
 
-        @Override
-        public void onGlobalLayout(){
-            int initialHeaderHeight = header.getHeight();
+        private final OnStreamingRefreshListener<Object> onStreamingRefreshListener;
 
-            if(initialHeaderHeight > 0){
-                measuredHeaderHeight = initialHeaderHeight;
+        @SuppressWarnings("unchecked")
+        PTRStreamingRefreshListener(OnStreamingRefreshListener<?> onStreamingRefreshListener){
+            this.onStreamingRefreshListener = (OnStreamingRefreshListener<Object>) onStreamingRefreshListener;
+        }
 
-                if(measuredHeaderHeight > 0 && state != State.REFRESHING){
-                    setHeaderPadding(-measuredHeaderHeight);
-                    requestLayout();
-                }
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onRefresh(){
+            if(pullToRefreshAdapter == null){
+                throw new IllegalStateException("A streaming refresh requires a PullToRefreshAdapter");
             }
 
-            getViewTreeObserver().removeGlobalOnLayoutListener(this);
+            detachRefreshStream();
+            RefreshStream<Object> stream = new RefreshStream<Object>(PullToRefreshListView.this,
+                    (PullToRefreshAdapter<Object>) pullToRefreshAdapter, streamFrameBudget);
+            refreshStream = stream;
+            onStreamingRefreshListener.onRefresh(stream);
+        }
+    }
+
+    private class PTRFrameCallback implements Choreographer.FrameCallback{
+
+        @Override
+        public void doFrame(long frameTimeNanos){
+            headerFrameScheduled = false;
+            applyHeaderFrame();
         }
     }
 
@@ -505,7 +1982,12 @@ public class PullToRefreshListView extends ListView{
         public void onItemClick(AdapterView<?> adapterView, View view, int position, long id){
             hasResetHeader = false;
 
-            if(onItemClickListener != null && state == State.PULL_TO_REFRESH){
+            if(loadMoreFooter != null && view == loadMoreFooter.getView()){
+                loadMoreFooter.onClick();
+                return;
+            }
+
+            if(onItemClickListener != null && stateMachine.getState() == State.PULL_TO_REFRESH){
                 // Passing up onItemClick. Correct position with the number of header views
                 onItemClickListener.onItemClick(adapterView, view, position - getHeaderViewsCount(), id);
             }
@@ -518,7 +2000,7 @@ public class PullToRefreshListView extends ListView{
         public boolean onItemLongClick(AdapterView<?> adapterView, View view, int position, long id){
             hasResetHeader = false;
 
-            if(onItemLongClickListener != null && state == State.PULL_TO_REFRESH){
+            if(onItemLongClickListener != null && stateMachine.getState() == State.PULL_TO_REFRESH){
                 // Passing up onItemLongClick. Correct position with the number of header views
                 return onItemLongClickListener.onItemLongClick(adapterView, view, position - getHeaderViewsCount(), id);
             }
@@ -526,4 +2008,36 @@ public class PullToRefreshListView extends ListView{
             return false;
         }
     }
+
+    private class PTROnScrollListener implements OnScrollListener{
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState){
+            if(onScrollListener != null){
+                onScrollListener.onScrollStateChanged(view, scrollState);
+            }
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount){
+            if(loadMoreFooter != null){
+                loadMoreFooter.onScroll(firstVisibleItem, visibleItemCount, totalItemCount);
+            }
+            updateTicker();
+
+            if(onScrollListener != null){
+                onScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+            }
+        }
+    }
+
+    private class PTRTickListener implements LastUpdatedTicker.Listener{
+
+        @Override
+        public void onMinuteTick(){
+            if(header != null && showLastUpdatedText && lastUpdated != -1){
+                showLastUpdated();
+            }
+        }
+    }
 }
@@ -0,0 +1,414 @@
+package eu.erikw;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Refreshes several PullToRefreshListViews together, for example the pages of a
+ * ViewPager. Each list registers with the key of its data; the refreshes of the lists
+ * are fetched in batches by one BatchFetcher, and the items it returns are passed to the
+ * onRefreshComplete(..) of each list.
+ * <ul>
+ * <li>Refreshes that are requested within the batch window are fetched together.</li>
+ * <li>At most setMaxConcurrentFetches(..) batches are fetched at once. Refreshes that
+ * are requested in the meantime wait for the next batch.</li>
+ * <li>A list that is not visible is not fetched until it becomes visible, it keeps
+ * showing its spinner until then. refreshAll() does not even start the refresh of such
+ * a list until it becomes visible.</li>
+ * </ul>
+ * Registering a list sets its OnRefreshListener, so the list must not have a RefreshTask,
+ * which would take precedence. To receive the fetched items, the list needs a
+ * PullToRefreshAdapter; other lists are only set back to 'pull to refresh'.
+ * <p/>
+ * The coordinator only keeps weak references to the registered lists, so it may outlive
+ * them, for example as a singleton; a list that is garbage collected drops out by itself.
+ * <p/>
+ * Only to be used from the UI thread.
+ */
+public class RefreshCoordinator{
+
+    private static final String TAG = "PullToRefresh";
+
+    public static final long DEFAULT_BATCH_WINDOW           = 50;
+    public static final int  DEFAULT_MAX_CONCURRENT_FETCHES = 1;
+
+    /**
+     * Fetches the data of several lists at once.
+     */
+    public interface BatchFetcher{
+
+        /**
+         * Fetch the items of the given keys. Called on the executor of the coordinator.
+         * Throwing fails the refresh of every list in the batch.
+         *
+         * @param keys The keys of the lists to refresh
+         * @return The new items per key. The lists must not be modified afterwards.
+         * A list whose key is missing is set back to 'pull to refresh' with the items it has.
+         */
+        public Map<String, List<?>> fetch(Set<String> keys) throws Exception;
+    }
+
+    private final Handler                            handler = new Handler(Looper.getMainLooper());
+    private final Rect                               visibleRect = new Rect();
+    private final BatchFetcher                       fetcher;
+    private final Map<PullToRefreshListView, Member> members = new WeakHashMap<PullToRefreshListView, Member>();
+    private final ArrayList<Member>                  queue = new ArrayList<Member>();
+    private final Runnable                           flushRunnable;
+
+    private Executor executor;
+    private long     batchWindow = DEFAULT_BATCH_WINDOW;
+    private int      maxConcurrentFetches = DEFAULT_MAX_CONCURRENT_FETCHES;
+    private int      runningFetches;
+    private boolean  flushPosted;
+
+    /**
+     * @param fetcher The BatchFetcher that fetches the data of the registered lists
+     */
+    public RefreshCoordinator(BatchFetcher fetcher){
+        this.fetcher = fetcher;
+        this.flushRunnable = new Runnable(){
+
+            @Override
+            public void run(){
+                flushPosted = false;
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Default is 50 milliseconds. Refreshes that are requested within this time of the
+     * first one are fetched in the same batch.
+     *
+     * @param batchWindowMillis The batch window in milliseconds
+     */
+    public void setBatchWindow(long batchWindowMillis){
+        this.batchWindow = batchWindowMillis;
+    }
+
+    /**
+     * Default is 1. The number of batches that are fetched at the same time.
+     *
+     * @param maxConcurrentFetches The maximum number of concurrent fetches, at least 1
+     */
+    public void setMaxConcurrentFetches(int maxConcurrentFetches){
+        if(maxConcurrentFetches < 1){
+            throw new IllegalArgumentException("maxConcurrentFetches must be at least 1, was " + maxConcurrentFetches);
+        }
+
+        this.maxConcurrentFetches = maxConcurrentFetches;
+        flush();
+    }
+
+    /**
+     * Set the executor that runs the BatchFetcher. Default is the shared pool of
+     * background threads that also runs RefreshTasks.
+     *
+     * @param executor The executor, or null for the default
+     */
+    public void setExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    /**
+     * Register a list. Its refreshes, by pulling, setRefreshing() or periodic refresh, are
+     * fetched by this coordinator from now on. Call unregister(..) when the list is no
+     * longer used, for example when its screen is destroyed, so refreshes that are
+     * requested or waiting for it are dropped right away instead of when it is garbage
+     * collected.
+     *
+     * @param list The list, without a RefreshTask
+     * @param key  The key of the data of the list, passed to the BatchFetcher
+     */
+    public void register(PullToRefreshListView list, String key){
+        if(list.getRefreshTask() != null){
+            throw new IllegalStateException("A list with a RefreshTask does not call the coordinator, remove the task first");
+        }
+
+        unregister(list);
+
+        Member member = new Member(list, key);
+        members.put(list, member);
+        list.setOnRefreshListener(member);
+    }
+
+    /**
+     * Unregister a list. A fetch that is running for it is still completed, but its
+     * result is no longer passed to the list; a refresh the list is showing is left to
+     * the caller to complete.
+     *
+     * @param list The list
+     */
+    public void unregister(PullToRefreshListView list){
+        Member member = members.remove(list);
+        if(member == null){
+            return;
+        }
+
+        member.stopWatching();
+        queue.remove(member);
+        list.setOnRefreshListener(null);
+    }
+
+    /**
+     * Refresh all registered lists. Visible lists start refreshing right away, the
+     * others as soon as they become visible. Lists that are refreshing already, or whose
+     * RefreshPolicy declines the refresh, are left alone.
+     */
+    public void refreshAll(){
+        for(Member member : members.values()){
+            PullToRefreshListView list = member.list.get();
+            if(list == null){
+                continue;
+            }
+
+            if(isVisible(list)){
+                list.startRefresh();
+            }else if(!member.fetching){
+                member.watch(Member.START_WHEN_VISIBLE);
+            }
+        }
+    }
+
+    private boolean isVisible(PullToRefreshListView list){
+        return list.getWindowToken() != null && list.isShown() && list.getGlobalVisibleRect(visibleRect);
+    }
+
+    private void enqueue(Member member){
+        if(member.fetching || queue.contains(member)){
+            return;
+        }
+
+        queue.add(member);
+        if(!flushPosted){
+            flushPosted = true;
+            handler.postDelayed(flushRunnable, batchWindow);
+        }
+    }
+
+    private void flush(){
+        if(queue.isEmpty() || runningFetches >= maxConcurrentFetches || flushPosted){
+            return;
+        }
+
+        final List<Member> batch = new ArrayList<Member>(queue);
+        final Set<String> keys = new LinkedHashSet<String>();
+        for(Member member : batch){
+            member.fetching = true;
+            keys.add(member.key);
+        }
+        queue.clear();
+        runningFetches++;
+
+        Executor fetchExecutor = executor == null ? RefreshPipeline.getDefaultExecutor() : executor;
+        fetchExecutor.execute(new Runnable(){
+
+            @Override
+            public void run(){
+                Map<String, List<?>> result = null;
+                try{
+                    result = fetcher.fetch(keys);
+                }catch(Exception e){
+                    // Fails the whole batch
+                    Log.w(TAG, "Could not fetch " + keys, e);
+                }
+
+                final Map<String, List<?>> items = result;
+                handler.post(new Runnable(){
+
+                    @Override
+                    public void run(){
+                        onBatchEnded(batch, items);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onBatchEnded(List<Member> batch, Map<String, List<?>> result){
+        runningFetches--;
+
+        for(Member member : batch){
+            member.fetching = false;
+
+            // Collected, unregistered, or the refresh ended on its own (timeout, detach) meanwhile
+            PullToRefreshListView list = member.list.get();
+            if(list == null || members.get(list) != member || !list.isRefreshing()){
+                continue;
+            }
+
+            List<?> items = result == null ? null : result.get(member.key);
+            if(result == null){
+                list.onRefreshFailed();
+            }else if(items != null && list.getPullToRefreshAdapter() != null){
+                list.onRefreshComplete(items);
+            }else{
+                list.onRefreshComplete();
+            }
+        }
+
+        flush();
+    }
+
+    private class Member implements PullToRefreshListView.OnRefreshListener, ViewTreeObserver.OnScrollChangedListener, ViewTreeObserver.OnGlobalLayoutListener{
+
+        static final int START_WHEN_VISIBLE = 1;
+        static final int FETCH_WHEN_VISIBLE = 2;
+
+        final WeakReference<PullToRefreshListView> list;
+        final String                               key;
+
+        boolean          fetching;
+        int              pending;
+        ViewTreeObserver observer;
+        Object           attachListener;
+
+        Member(PullToRefreshListView list, String key){
+            this.list = new WeakReference<PullToRefreshListView>(list);
+            this.key = key;
+        }
+
+        @Override
+        public void onRefresh(){
+            // Called by the list itself, which is therefore still there
+            if(isVisible(list.get())){
+                enqueue(this);
+            }else{
+                watch(FETCH_WHEN_VISIBLE);
+            }
+        }
+
+        void watch(int action){
+            if(pending == 0){
+                startWatching();
+            }
+
+            // A fetch that is already waiting wins over a start
+            pending = Math.max(pending, action);
+        }
+
+        void stopWatching(){
+            if(pending != 0){
+                removeObserverListeners();
+                PullToRefreshListView list = this.list.get();
+                if(attachListener != null && list != null){
+                    list.removeOnAttachStateChangeListener((View.OnAttachStateChangeListener) attachListener);
+                }
+                pending = 0;
+            }
+        }
+
+        private void startWatching(){
+            PullToRefreshListView list = this.list.get();
+            if(list == null){
+                return;
+            }
+
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1){
+                // The observer of a detached list is replaced on attach, so register once attached
+                if(attachListener == null){
+                    attachListener = new PTRAttachListener(this);
+                }
+                list.addOnAttachStateChangeListener((View.OnAttachStateChangeListener) attachListener);
+                if(list.getWindowToken() != null){
+                    addObserverListeners();
+                }
+            }else{
+                // A floating observer passes its listeners on to the one of the window on attach
+                addObserverListeners();
+            }
+        }
+
+        void addObserverListeners(){
+            PullToRefreshListView list = this.list.get();
+            if(list == null){
+                return;
+            }
+
+            observer = list.getViewTreeObserver();
+            observer.addOnScrollChangedListener(this);
+            observer.addOnGlobalLayoutListener(this);
+        }
+
+        @SuppressWarnings("deprecation")
+        void removeObserverListeners(){
+            if(observer == null){
+                return;
+            }
+
+            // A dead observer handed its listeners over to the current one
+            PullToRefreshListView list = this.list.get();
+            ViewTreeObserver registered = observer.isAlive() || list == null ? observer : list.getViewTreeObserver();
+            if(registered.isAlive()){
+                registered.removeOnScrollChangedListener(this);
+                registered.removeGlobalOnLayoutListener(this);
+            }
+            observer = null;
+        }
+
+        @Override
+        public void onScrollChanged(){
+            checkVisible();
+        }
+
+        @Override
+        public void onGlobalLayout(){
+            checkVisible();
+        }
+
+        private void checkVisible(){
+            PullToRefreshListView list = this.list.get();
+            if(pending == 0 || list == null || !isVisible(list)){
+                return;
+            }
+
+            int action = pending;
+            stopWatching();
+            if(action == FETCH_WHEN_VISIBLE){
+                if(list.isRefreshing()){
+                    enqueue(this);
+                }
+            }else{
+                list.startRefresh();
+            }
+        }
+    }
+
+    /**
+     * Moves the observer listeners of a waiting member along with the attach state of its
+     * list. A separate class, View.OnAttachStateChangeListener exists on Honeycomb MR1 and up.
+     */
+    private static class PTRAttachListener implements View.OnAttachStateChangeListener{
+
+        private final Member member;
+
+        PTRAttachListener(Member member){
+            this.member = member;
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View view){
+            member.removeObserverListeners();
+            member.addObserverListeners();
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View view){
+            member.removeObserverListeners();
+        }
+    }
+}
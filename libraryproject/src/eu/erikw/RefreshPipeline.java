@@ -0,0 +1,254 @@
+package eu.erikw;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the refreshes of a PullToRefreshListView. There is at most one refresh in flight;
+ * triggers that arrive while one is running are coalesced into it. The refresh work of a
+ * RefreshTask runs on the configured executor, everything else happens on the UI thread.
+ * <p/>
+ * A refresh ends when its result is delivered, when finish() is called (the list calls
+ * this from onRefreshComplete()), when the timeout expires or when it is cancelled.
+ */
+class RefreshPipeline{
+
+    private static ExecutorService defaultExecutor;
+
+    /**
+     * Callback to the owning list, always invoked on the UI thread.
+     */
+    interface Listener{
+
+        /**
+         * The task of the refresh in flight delivered its result or failed.
+         * Not called for finish().
+         *
+         * @param success True if the task delivered a result
+         */
+        public void onRefreshEnded(boolean success);
+
+        /**
+         * The refresh in flight did not end within the timeout and was cancelled.
+         */
+        public void onRefreshTimedOut();
+    }
+
+    private final Handler   handler = new Handler(Looper.getMainLooper());
+    private final Listener  listener;
+    private final Runnable  timeoutRunnable;
+    private Executor        executor;
+    private long            timeout;
+    private Request         inFlight;
+    private ListenerRequest listenerRequest;
+
+    RefreshPipeline(Listener listener){
+        this.listener = listener;
+        this.timeoutRunnable = new Runnable(){
+
+            @Override
+            public void run(){
+                if(inFlight != null){
+                    inFlight.cancel();
+                    inFlight = null;
+                    RefreshPipeline.this.listener.onRefreshTimedOut();
+                }
+            }
+        };
+    }
+
+    /**
+     * The shared executor used when none is set: a cached pool of background priority
+     * threads.
+     */
+    static synchronized ExecutorService getDefaultExecutor(){
+        if(defaultExecutor == null){
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory(){
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable){
+                    return new Thread(new Runnable(){
+
+                        @Override
+                        public void run(){
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "PullToRefresh #" + count.incrementAndGet());
+                }
+            });
+        }
+
+        return defaultExecutor;
+    }
+
+    void setExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    Executor getExecutor(){
+        return executor == null ? getDefaultExecutor() : executor;
+    }
+
+    void setTimeout(long timeout){
+        this.timeout = timeout;
+    }
+
+    boolean isInFlight(){
+        return inFlight != null;
+    }
+
+    /**
+     * Starts a refresh that runs the given task on the executor.
+     *
+     * @return False if a refresh was already in flight and this trigger was coalesced into it
+     */
+    <T> boolean start(PullToRefreshListView.RefreshTask<T> task){
+        return start(new TaskRequest<T>(task));
+    }
+
+    /**
+     * Starts a refresh that calls the listener on the UI thread. It stays in flight until
+     * finish() is called.
+     *
+     * @return False if a refresh was already in flight and this trigger was coalesced into it
+     */
+    boolean start(PullToRefreshListView.OnRefreshListener onRefreshListener){
+        if(inFlight != null){
+            return false;
+        }
+
+        // Nothing runs in the background for a listener, so the request can be reused
+        if(listenerRequest == null){
+            listenerRequest = new ListenerRequest();
+        }
+        listenerRequest.onRefreshListener = onRefreshListener;
+        listenerRequest.cancelled = false;
+
+        return start(listenerRequest);
+    }
+
+    private boolean start(Request request){
+        if(inFlight != null){
+            return false;
+        }
+
+        inFlight = request;
+        if(timeout > 0){
+            handler.postDelayed(timeoutRunnable, timeout);
+        }
+
+        request.start();
+        return true;
+    }
+
+    /**
+     * Ends the refresh in flight without notifying the listener. A task that is still
+     * running is interrupted if the executor allows it and its result is discarded.
+     */
+    void finish(){
+        if(inFlight != null){
+            handler.removeCallbacks(timeoutRunnable);
+            inFlight.cancel();
+            inFlight = null;
+        }
+    }
+
+    private abstract static class Request{
+
+        volatile boolean cancelled;
+
+        abstract void start();
+
+        void cancel(){
+            cancelled = true;
+        }
+    }
+
+    private static class ListenerRequest extends Request{
+
+        private PullToRefreshListView.OnRefreshListener onRefreshListener;
+
+        @Override
+        void start(){
+            onRefreshListener.onRefresh();
+        }
+    }
+
+    private class TaskRequest<T> extends Request implements Runnable{
+
+        private final PullToRefreshListView.RefreshTask<T> task;
+        private Future<?> future;
+        private T         result;
+        private Exception error;
+
+        TaskRequest(PullToRefreshListView.RefreshTask<T> task){
+            this.task = task;
+        }
+
+        @Override
+        void start(){
+            Executor executor = getExecutor();
+            if(executor instanceof ExecutorService){
+                future = ((ExecutorService) executor).submit(this);
+            }else{
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        void cancel(){
+            super.cancel();
+            if(future != null){
+                future.cancel(true);
+            }
+        }
+
+        @Override
+        public void run(){
+            if(cancelled){
+                return;
+            }
+
+            try{
+                result = task.onRefreshInBackground();
+            }catch(Exception e){
+                error = e;
+            }
+
+            handler.post(new Runnable(){
+
+                @Override
+                public void run(){
+                    deliver();
+                }
+            });
+        }
+
+        private void deliver(){
+            if(cancelled || inFlight != this){
+                return;
+            }
+
+            handler.removeCallbacks(timeoutRunnable);
+            inFlight = null;
+
+            if(error == null){
+                task.onRefreshResult(result);
+            }else{
+                task.onRefreshFailed(error);
+            }
+            listener.onRefreshEnded(error == null);
+        }
+    }
+}
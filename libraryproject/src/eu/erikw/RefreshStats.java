@@ -0,0 +1,228 @@
+package eu.erikw;
+
+import android.os.SystemClock;
+
+/**
+ * Aggregated refresh counters of a PullToRefreshListView. The list keeps a live
+ * instance; PullToRefreshListView.getRefreshStats(..) copies it into one of yours,
+ * which is a snapshot that does not change afterwards.
+ * <p/>
+ * Recording and copying do not allocate. The latency histogram covers refreshes that
+ * completed, from the moment the list went to 'Refreshing' until onRefreshComplete()
+ * (or the result of a RefreshTask).
+ */
+public class RefreshStats{
+
+    /**
+     * Upper bounds (inclusive) of the latency buckets in milliseconds. The last bucket
+     * holds everything slower.
+     */
+    private static final long[] LATENCY_BUCKET_BOUNDS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    /**
+     * Start times of the most recent refreshes, for getRefreshesPerMinute(). A list that
+     * refreshes more often than this per minute reports this many.
+     */
+    private static final int RECENT_CAPACITY = 64;
+
+    private final long[] latencyBuckets = new long[LATENCY_BUCKET_BOUNDS.length + 1];
+    private final long[] recentStarts   = new long[RECENT_CAPACITY];
+
+    private int  recentCount;
+    private int  recentNext;
+    private long pullCount;
+    private long programmaticCount;
+    private long completedCount;
+    private long failedCount;
+    private long timedOutCount;
+    private long cancelledCount;
+    private long latencySumMillis;
+    private long snapshotTime;
+    private long refreshStartTime = -1;
+
+    /**
+     * Copy the counters of another instance into this one.
+     *
+     * @param source The instance to copy
+     */
+    public void set(RefreshStats source){
+        System.arraycopy(source.latencyBuckets, 0, latencyBuckets, 0, latencyBuckets.length);
+        System.arraycopy(source.recentStarts, 0, recentStarts, 0, recentStarts.length);
+        recentCount = source.recentCount;
+        recentNext = source.recentNext;
+        pullCount = source.pullCount;
+        programmaticCount = source.programmaticCount;
+        completedCount = source.completedCount;
+        failedCount = source.failedCount;
+        timedOutCount = source.timedOutCount;
+        cancelledCount = source.cancelledCount;
+        latencySumMillis = source.latencySumMillis;
+        refreshStartTime = source.refreshStartTime;
+        snapshotTime = SystemClock.uptimeMillis();
+    }
+
+    void reset(){
+        for(int i = 0; i < latencyBuckets.length; i++){
+            latencyBuckets[i] = 0;
+        }
+        recentCount = 0;
+        recentNext = 0;
+        pullCount = 0;
+        programmaticCount = 0;
+        completedCount = 0;
+        failedCount = 0;
+        timedOutCount = 0;
+        cancelledCount = 0;
+        latencySumMillis = 0;
+        refreshStartTime = -1;
+    }
+
+    /**
+     * The list went to 'Refreshing'. Triggers while a refresh is already running are
+     * coalesced into it and not counted.
+     *
+     * @param pull True if triggered by a pull, false for setRefreshing()
+     */
+    void onRefreshStarted(boolean pull){
+        if(refreshStartTime != -1){
+            return;
+        }
+
+        refreshStartTime = SystemClock.uptimeMillis();
+        if(pull){
+            pullCount++;
+        }else{
+            programmaticCount++;
+        }
+
+        recentStarts[recentNext] = refreshStartTime;
+        recentNext = (recentNext + 1) % RECENT_CAPACITY;
+        recentCount = Math.min(recentCount + 1, RECENT_CAPACITY);
+    }
+
+    void onRefreshCompleted(){
+        if(refreshStartTime == -1){
+            return;
+        }
+
+        long latency = SystemClock.uptimeMillis() - refreshStartTime;
+        refreshStartTime = -1;
+        completedCount++;
+        latencySumMillis += latency;
+
+        int bucket = 0;
+        while(bucket < LATENCY_BUCKET_BOUNDS.length && latency > LATENCY_BUCKET_BOUNDS[bucket]){
+            bucket++;
+        }
+        latencyBuckets[bucket]++;
+    }
+
+    void onRefreshFailed(){
+        if(refreshStartTime != -1){
+            refreshStartTime = -1;
+            failedCount++;
+        }
+    }
+
+    void onRefreshTimedOut(){
+        if(refreshStartTime != -1){
+            refreshStartTime = -1;
+            timedOutCount++;
+        }
+    }
+
+    void onRefreshCancelled(){
+        if(refreshStartTime != -1){
+            refreshStartTime = -1;
+            cancelledCount++;
+        }
+    }
+
+    /**
+     * @return The number of refreshes triggered by pulling the list
+     */
+    public long getPullRefreshCount(){
+        return pullCount;
+    }
+
+    /**
+     * @return The number of refreshes triggered by setRefreshing()
+     */
+    public long getProgrammaticRefreshCount(){
+        return programmaticCount;
+    }
+
+    /**
+     * @return The number of refreshes that completed, the ones in the latency histogram
+     */
+    public long getCompletedCount(){
+        return completedCount;
+    }
+
+    /**
+     * @return The number of refreshes that ended in failure (task exception, timeout or stream error)
+     */
+    public long getFailedCount(){
+        return failedCount;
+    }
+
+    /**
+     * @return The number of refreshes that did not finish within the refresh timeout
+     */
+    public long getTimedOutCount(){
+        return timedOutCount;
+    }
+
+    /**
+     * @return The number of refreshes that were cancelled because the list was detached
+     */
+    public long getCancelledCount(){
+        return cancelledCount;
+    }
+
+    /**
+     * @return The mean latency of the completed refreshes, or -1 if there are none
+     */
+    public long getMeanLatencyMillis(){
+        return completedCount == 0 ? -1 : latencySumMillis / completedCount;
+    }
+
+    /**
+     * @return The number of refreshes that started in the minute before this snapshot was taken
+     */
+    public int getRefreshesPerMinute(){
+        int count = 0;
+        for(int i = 0; i < recentCount; i++){
+            if(snapshotTime - recentStarts[i] < MINUTE_MILLIS){
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The number of latency buckets, including the last one for everything slower
+     */
+    public int getLatencyBucketCount(){
+        return latencyBuckets.length;
+    }
+
+    /**
+     * @param bucket The bucket index
+     * @return The upper bound (inclusive) of the bucket in milliseconds, Long.MAX_VALUE for the last one
+     */
+    public long getLatencyBucketUpperBoundMillis(int bucket){
+        return bucket < LATENCY_BUCKET_BOUNDS.length ? LATENCY_BUCKET_BOUNDS[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param bucket The bucket index
+     * @return The number of completed refreshes in the bucket
+     */
+    public long getLatencyBucket(int bucket){
+        return latencyBuckets[bucket];
+    }
+}
@@ -0,0 +1,297 @@
+package eu.erikw;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The items of a streaming refresh, see
+ * PullToRefreshListView.setOnStreamingRefreshListener(..). Batches of items can be
+ * pushed from any thread as they arrive; the list shows them while it keeps showing
+ * 'Refreshing' until the stream is completed, failed or cancelled.
+ * <p/>
+ * The first batch replaces the items that were shown before, later batches are
+ * appended. Items are committed to the PullToRefreshAdapter once per frame, in chunks
+ * that are sized to the frame budget: the chunk doubles while committing it and laying
+ * out the list stays within the budget and halves when it does not, so a large batch is
+ * spread over several frames.
+ *
+ * @param <T> The item type
+ */
+public class RefreshStream<T>{
+
+    private static final String TAG = "PullToRefresh";
+
+    /**
+     * Items committed in the first frame, before any cost was measured.
+     */
+    private static final int INITIAL_CHUNK_SIZE = 16;
+
+    private final Handler                  handler = new Handler(Looper.getMainLooper());
+    private final PullToRefreshListView    listView;
+    private final PullToRefreshAdapter<T>  adapter;
+    private final long                     frameBudgetNanos;
+    private final Runnable                 frameRunnable;
+    private final Runnable                 requestFrameRunnable;
+    private final Runnable                 cancelRunnable;
+    private Object                         frameCallback;
+
+    // Guarded by this
+    private final ArrayList<T> incoming = new ArrayList<T>();
+    private boolean            completed;
+    private Exception          error;
+    private boolean            framePosted;
+
+    private volatile boolean cancelled;
+
+    // UI thread only
+    private final ArrayList<T> ready = new ArrayList<T>();
+    private int                readyIndex;
+    private ArrayList<T>       shown;
+    private boolean            frameScheduled;
+    private int                chunkSize = INITIAL_CHUNK_SIZE;
+    private long               commitNanos;
+    private long               layoutNanos;
+
+    RefreshStream(PullToRefreshListView listView, PullToRefreshAdapter<T> adapter, long frameBudgetMillis){
+        this.listView = listView;
+        this.adapter = adapter;
+        this.frameBudgetNanos = frameBudgetMillis * 1000 * 1000;
+        this.frameRunnable = new Runnable(){
+
+            @Override
+            public void run(){
+                doFrame();
+            }
+        };
+        this.requestFrameRunnable = new Runnable(){
+
+            @Override
+            public void run(){
+                synchronized(RefreshStream.this){
+                    framePosted = false;
+                }
+                scheduleFrame();
+            }
+        };
+        this.cancelRunnable = new Runnable(){
+
+            @Override
+            public void run(){
+                RefreshStream.this.listView.onRefreshStreamCancelled(RefreshStream.this);
+            }
+        };
+    }
+
+    /**
+     * Push the next batch of items. May be called from any thread. Ignored once the
+     * stream has ended.
+     *
+     * @param items The items to append
+     */
+    public void push(List<? extends T> items){
+        synchronized(this){
+            if(completed || error != null || cancelled){
+                return;
+            }
+            incoming.addAll(items);
+        }
+        requestFrame();
+    }
+
+    /**
+     * End the stream successfully. The list is set back to 'pull to refresh' when the
+     * pushed items are shown. May be called from any thread.
+     */
+    public void complete(){
+        synchronized(this){
+            if(completed || error != null || cancelled){
+                return;
+            }
+            completed = true;
+        }
+        requestFrame();
+    }
+
+    /**
+     * End the stream as failed. The items that were shown stay, the others are dropped.
+     * May be called from any thread.
+     *
+     * @param e The cause
+     */
+    public void fail(Exception e){
+        synchronized(this){
+            if(completed || error != null || cancelled){
+                return;
+            }
+            error = e;
+        }
+        requestFrame();
+    }
+
+    /**
+     * Abandon the stream. The items that were shown stay, and the list is set back to
+     * 'pull to refresh'. May be called from any thread.
+     */
+    public void cancel(){
+        if(!cancelled){
+            handler.post(cancelRunnable);
+        }
+    }
+
+    /**
+     * @return True if the stream was cancelled, by cancel() or by the list (timeout,
+     * detach, another refresh). Nothing more needs to be pushed.
+     */
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Stops the stream without telling the list. Called by the list on the UI thread.
+     */
+    void detach(){
+        cancelled = true;
+        handler.removeCallbacks(frameRunnable);
+        handler.removeCallbacks(requestFrameRunnable);
+        handler.removeCallbacks(cancelRunnable);
+        if(frameCallback != null){
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) frameCallback);
+        }
+    }
+
+    private void requestFrame(){
+        synchronized(this){
+            if(framePosted){
+                return;
+            }
+            framePosted = true;
+        }
+
+        // The Choreographer belongs to the UI thread
+        handler.post(requestFrameRunnable);
+    }
+
+    private void scheduleFrame(){
+        if(frameScheduled || cancelled){
+            return;
+        }
+
+        frameScheduled = true;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            if(frameCallback == null){
+                frameCallback = new StreamFrameCallback();
+            }
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+        }else{
+            handler.post(frameRunnable);
+        }
+    }
+
+    private void doFrame(){
+        frameScheduled = false;
+        if(cancelled){
+            return;
+        }
+
+        boolean done;
+        Exception failure;
+        synchronized(this){
+            ready.addAll(incoming);
+            incoming.clear();
+            done = completed;
+            failure = error;
+        }
+
+        if(failure != null){
+            Log.w(TAG, "Streaming refresh failed", failure);
+            listView.onRefreshFailed();
+            return;
+        }
+
+        adaptChunkSize();
+        commitReady();
+
+        if(readyIndex < ready.size()){
+            scheduleFrame();
+            return;
+        }
+
+        ready.clear();
+        readyIndex = 0;
+        if(done){
+            if(shown == null){
+                // Completed without any items
+                adapter.setItems(Collections.<T>emptyList());
+            }
+            listView.onRefreshComplete();
+        }
+    }
+
+    /**
+     * The list laid itself out, which binds the rows of the last commit.
+     *
+     * @param nanos The duration of the layout
+     */
+    void onLayout(long nanos){
+        layoutNanos += nanos;
+    }
+
+    /**
+     * Sizes the next chunk from the cost of the previous commit and the layouts after it.
+     */
+    private void adaptChunkSize(){
+        if(commitNanos == 0){
+            return;
+        }
+
+        long cost = commitNanos + layoutNanos;
+        if(cost > frameBudgetNanos){
+            chunkSize = Math.max(1, chunkSize / 2);
+        }else if(cost < frameBudgetNanos / 2){
+            chunkSize = Math.min(chunkSize * 2, Integer.MAX_VALUE / 2);
+        }
+        commitNanos = 0;
+        layoutNanos = 0;
+    }
+
+    /**
+     * Commits the next chunk of ready items.
+     */
+    private void commitReady(){
+        if(readyIndex == ready.size()){
+            return;
+        }
+
+        long start = System.nanoTime();
+        int end = Math.min(readyIndex + chunkSize, ready.size());
+        List<T> chunk = ready.subList(readyIndex, end);
+        readyIndex = end;
+
+        // The stream owns the shown list and grows it in place, unless the adapter was given other items
+        if(shown != null && adapter.getItems() == shown && !adapter.isSubmitPending()){
+            shown.addAll(chunk);
+            adapter.notifyDataSetChanged();
+        }else{
+            shown = shown == null ? new ArrayList<T>() : new ArrayList<T>(adapter.getItems());
+            shown.addAll(chunk);
+            adapter.setItems(shown);
+        }
+
+        commitNanos = System.nanoTime() - start;
+    }
+
+    private class StreamFrameCallback implements Choreographer.FrameCallback{
+
+        @Override
+        public void doFrame(long frameTimeNanos){
+            RefreshStream.this.doFrame();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package eu.erikw;
+
+import android.content.res.Resources;
+
+/**
+ * Formats the relative 'last updated' text ("Updated: 2 min ago"). Every text is
+ * built once and cached, so the same value always comes back as the same String.
+ * <p/>
+ * Minutes are counted on the wall clock: an update at 12:00:50 is '1 min ago' at
+ * 12:01:00. The text can then only change on a whole minute, see LastUpdatedTicker.
+ */
+class RelativeTimeFormatter{
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final int  HOUR_MINUTES  = 60;
+    private static final int  DAY_MINUTES   = 24 * HOUR_MINUTES;
+
+    private final Resources resources;
+    private final String    template;
+    private final String[]  minuteTexts = new String[HOUR_MINUTES];
+    private final String[]  hourTexts   = new String[DAY_MINUTES / HOUR_MINUTES];
+
+    private long   days = -1;
+    private String daysText;
+
+    /**
+     * @param resources The resources with the ptr_last_updated_* strings
+     * @param template  The text with a '%1$s' for the relative time
+     */
+    RelativeTimeFormatter(Resources resources, String template){
+        this.resources = resources;
+        this.template = template;
+    }
+
+    /**
+     * @param time The time of the last update in milliseconds since the epoch
+     * @param now  The current time in milliseconds since the epoch
+     * @return The text to show
+     */
+    String format(long time, long now){
+        // A clock that was set back shows 'just now' rather than the future
+        long minutes = Math.max(0, now / MINUTE_MILLIS - time / MINUTE_MILLIS);
+
+        if(minutes < HOUR_MINUTES){
+            int index = (int) minutes;
+            if(minuteTexts[index] == null){
+                minuteTexts[index] = index == 0
+                        ? String.format(template, resources.getString(R.string.ptr_last_updated_just_now))
+                        : build(R.plurals.ptr_last_updated_minutes, index);
+            }
+            return minuteTexts[index];
+        }
+
+        if(minutes < DAY_MINUTES){
+            int hours = (int) (minutes / HOUR_MINUTES);
+            if(hourTexts[hours] == null){
+                hourTexts[hours] = build(R.plurals.ptr_last_updated_hours, hours);
+            }
+            return hourTexts[hours];
+        }
+
+        long days = minutes / DAY_MINUTES;
+        if(days != this.days){
+            this.days = days;
+            daysText = build(R.plurals.ptr_last_updated_days, (int) Math.min(days, Integer.MAX_VALUE));
+        }
+        return daysText;
+    }
+
+    private String build(int pluralsId, int quantity){
+        return String.format(template, resources.getQuantityString(pluralsId, quantity, quantity));
+    }
+}
@@ -0,0 +1,176 @@
+package eu.erikw;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.SparseArray;
+import android.view.View;
+
+/**
+ * Prepares rows of a PullToRefreshListView while the UI thread is idle, so the first
+ * fling after a refresh does not have to inflate and bind them. Rows below the viewport
+ * are inflated and bound ahead of time, and the row pool is filled up to a number of
+ * rows per view type.
+ * <p/>
+ * The work runs in slices from a MessageQueue.IdleHandler, each slice stops when its
+ * time budget is used. cancel() stops it right away, for example on touch. Only works
+ * with a PullToRefreshAdapter, whose items are in memory.
+ * <p/>
+ * Only to be used from the UI thread.
+ */
+class RowPrefetcher implements MessageQueue.IdleHandler{
+
+    private final PullToRefreshListView listView;
+    private final SparseArray<View>     prefetched = new SparseArray<View>();
+    private final SharedViewPool        pool = new SharedViewPool();
+
+    private int     rowsPerViewType;
+    private int     rowsToBind;
+    private long    budgetNanos;
+    private boolean scheduled;
+    private int     nextPosition;
+    private int     endPosition;
+    private int     nextViewType;
+
+    RowPrefetcher(PullToRefreshListView listView){
+        this.listView = listView;
+    }
+
+    void setRows(int rowsPerViewType, int rowsToBind){
+        this.rowsPerViewType = rowsPerViewType;
+        this.rowsToBind = rowsToBind;
+    }
+
+    void setBudget(long budgetMillis){
+        this.budgetNanos = budgetMillis * 1000 * 1000;
+    }
+
+    /**
+     * @return The pool of the list when it does not share one
+     */
+    SharedViewPool getPool(){
+        return pool;
+    }
+
+    /**
+     * Prefetches from the current viewport on, once the UI thread is idle. Rows that
+     * were prefetched before go back to the pool.
+     */
+    void start(){
+        if(listView.getPullToRefreshAdapter() == null || (rowsPerViewType == 0 && rowsToBind == 0)){
+            return;
+        }
+
+        releasePrefetched();
+        nextPosition = Math.max(0, listView.getLastVisiblePosition() - listView.getHeaderViewsCount() + 1);
+        endPosition = nextPosition + rowsToBind;
+        nextViewType = 0;
+
+        if(!scheduled){
+            scheduled = true;
+            Looper.myQueue().addIdleHandler(this);
+        }
+    }
+
+    /**
+     * Stops prefetching. Rows that are prefetched already stay ready.
+     */
+    void cancel(){
+        if(scheduled){
+            scheduled = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+    }
+
+    /**
+     * Stops prefetching and drops everything, for a list that leaves the window.
+     */
+    void clear(){
+        cancel();
+        releasePrefetched();
+        pool.clear();
+    }
+
+    /**
+     * @return The row prefetched for the item at the given position, or null if there is
+     * none. The row is handed out only once.
+     */
+    View take(int position, Object item){
+        View row = prefetched.get(position);
+        if(row == null){
+            return null;
+        }
+
+        prefetched.delete(position);
+        if(row.getTag(R.id.ptr_id_bound_item) == item){
+            return row;
+        }
+
+        // The items changed since
+        release(row);
+        return null;
+    }
+
+    @Override
+    public boolean queueIdle(){
+        if(!scheduled){
+            return false;
+        }
+
+        PullToRefreshAdapter<Object> adapter = getAdapter();
+        long deadline = System.nanoTime() + budgetNanos;
+        boolean more = adapter != null;
+        while(more && System.nanoTime() < deadline){
+            more = prefetchNext(adapter);
+        }
+
+        // Kept while there is work left, the next slice runs when the queue is idle again
+        scheduled = more;
+        return more;
+    }
+
+    /**
+     * Prefetches one row.
+     *
+     * @return False if there is nothing left to prefetch
+     */
+    private boolean prefetchNext(PullToRefreshAdapter<Object> adapter){
+        // Binding first, it takes its rows from the pool that is filled up afterwards
+        if(nextPosition < endPosition && nextPosition < adapter.getCount()){
+            int position = nextPosition++;
+            View row = adapter.acquireRow(listView, adapter.getItemViewType(position));
+            adapter.bindRow(row, adapter.getItem(position), position);
+            prefetched.put(position, row);
+            return true;
+        }
+
+        SharedViewPool rowPool = listView.getRowPool();
+        while(nextViewType < adapter.getViewTypeCount()){
+            if(rowPool.getViewCount(nextViewType) < rowsPerViewType
+                    && rowPool.release(adapter.createRow(listView, nextViewType), nextViewType)){
+                return true;
+            }
+            nextViewType++;
+        }
+
+        return false;
+    }
+
+    private void releasePrefetched(){
+        for(int i = 0; i < prefetched.size(); i++){
+            release(prefetched.valueAt(i));
+        }
+        prefetched.clear();
+    }
+
+    private void release(View row){
+        Object viewType = row.getTag(R.id.ptr_id_view_type);
+        if(viewType instanceof Integer){
+            listView.getRowPool().release(row, (Integer) viewType);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private PullToRefreshAdapter<Object> getAdapter(){
+        return (PullToRefreshAdapter<Object>) listView.getPullToRefreshAdapter();
+    }
+}
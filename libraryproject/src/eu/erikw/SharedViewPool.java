@@ -0,0 +1,185 @@
+package eu.erikw;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.SparseArray;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * A pool of row views that several PullToRefreshListViews draw from, so switching
+ * between lists with the same rows does not inflate them again. Activate it with
+ * PullToRefreshListView.setSharedViewPool(..) on every list that shares it.
+ * <p/>
+ * Rows are pooled by item view type. When a list is detached from the window, its
+ * visible rows are returned to the pool; a PullToRefreshAdapter that needs a new row
+ * takes one from the pool before it calls newView(..). Lists that share a pool must
+ * therefore create the same kind of row for the same view type.
+ * <p/>
+ * The pool keeps at most setMaxViews(..) rows per type, and drops rows when the system
+ * runs low on memory (Ice Cream Sandwich and up) or when the app's UI is hidden. Rows
+ * keep a reference to the Context they were inflated with, so a pool should not outlive
+ * the screen that uses it; call destroy() when that screen is destroyed.
+ * <p/>
+ * Only to be used from the UI thread.
+ */
+public class SharedViewPool{
+
+    /**
+     * Rows kept per view type, see setMaxViews(..).
+     */
+    public static final int DEFAULT_MAX_VIEWS = 10;
+
+    private final SparseArray<ArrayList<View>> views    = new SparseArray<ArrayList<View>>();
+    private final SparseArray<Integer>         maxViews = new SparseArray<Integer>();
+    private final Context                      context;
+    private final PTRComponentCallbacks        componentCallbacks;
+
+    /**
+     * @param context Any Context, used to listen for memory pressure
+     */
+    public SharedViewPool(Context context){
+        this.context = context.getApplicationContext();
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH){
+            componentCallbacks = new PTRComponentCallbacks();
+            this.context.registerComponentCallbacks(componentCallbacks);
+        }else{
+            componentCallbacks = null;
+        }
+    }
+
+    /**
+     * A pool of a single list, which does not listen for memory pressure.
+     */
+    SharedViewPool(){
+        this.context = null;
+        this.componentCallbacks = null;
+    }
+
+    /**
+     * Default is DEFAULT_MAX_VIEWS. Rows returned to the pool beyond this number are
+     * dropped.
+     *
+     * @param viewType The item view type
+     * @param max      The maximum number of pooled rows of this type, 0 to pool none
+     */
+    public void setMaxViews(int viewType, int max){
+        maxViews.put(viewType, max);
+
+        ArrayList<View> pooled = views.get(viewType);
+        if(pooled != null){
+            trim(pooled, max);
+        }
+    }
+
+    /**
+     * Drop all pooled rows.
+     */
+    public void clear(){
+        for(int i = 0; i < views.size(); i++){
+            views.valueAt(i).clear();
+        }
+    }
+
+    /**
+     * Drop all pooled rows and stop listening for memory pressure. The pool can still
+     * be used, it just does not trim itself anymore.
+     */
+    public void destroy(){
+        clear();
+        if(componentCallbacks != null){
+            context.unregisterComponentCallbacks(componentCallbacks);
+        }
+    }
+
+    /**
+     * @return The number of pooled rows of the given type
+     */
+    public int getViewCount(int viewType){
+        ArrayList<View> pooled = views.get(viewType);
+        return pooled == null ? 0 : pooled.size();
+    }
+
+    /**
+     * Takes a row of the given type out of the pool.
+     *
+     * @return The row, or null if there is none
+     */
+    View acquire(int viewType){
+        ArrayList<View> pooled = views.get(viewType);
+        if(pooled == null || pooled.isEmpty()){
+            return null;
+        }
+
+        return pooled.remove(pooled.size() - 1);
+    }
+
+    /**
+     * Returns a row to the pool, unless the pool for its type is full. The row must not
+     * have a parent.
+     *
+     * @param view     The row
+     * @param viewType The item view type of the row
+     * @return False if the row was dropped
+     */
+    boolean release(View view, int viewType){
+        int max = getMaxViews(viewType);
+
+        ArrayList<View> pooled = views.get(viewType);
+        if(pooled == null){
+            pooled = new ArrayList<View>(Math.min(max, DEFAULT_MAX_VIEWS));
+            views.put(viewType, pooled);
+        }
+        if(pooled.size() >= max){
+            return false;
+        }
+
+        pooled.add(view);
+        return true;
+    }
+
+    private int getMaxViews(int viewType){
+        Integer max = maxViews.get(viewType);
+        return max == null ? DEFAULT_MAX_VIEWS : max;
+    }
+
+    private void trimToHalf(){
+        for(int i = 0; i < views.size(); i++){
+            ArrayList<View> pooled = views.valueAt(i);
+            trim(pooled, pooled.size() / 2);
+        }
+    }
+
+    private static void trim(ArrayList<View> pooled, int max){
+        for(int i = pooled.size() - 1; i >= max; i--){
+            pooled.remove(i);
+        }
+    }
+
+    private class PTRComponentCallbacks implements ComponentCallbacks2{
+
+        @Override
+        public void onTrimMemory(int level){
+            // Hidden or critical: rows are cheap to inflate again compared to being killed
+            if(level >= TRIM_MEMORY_RUNNING_CRITICAL){
+                clear();
+            }else if(level >= TRIM_MEMORY_RUNNING_LOW){
+                trimToHalf();
+            }
+        }
+
+        @Override
+        public void onLowMemory(){
+            clear();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration configuration){
+            // Rows of the old configuration would show the wrong resources
+            clear();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package eu.erikw;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Persists the items of a PullToRefreshListView with their last-updated time, so they
+ * can be shown right away on the next start. See setSnapshotCodec(..).
+ * <p/>
+ * The file holds a header (magic, format version, last-updated time, item count)
+ * followed by the items as written by the SnapshotCodec. Snapshots are read by memory
+ * mapping the file and written on a background thread to a temporary file that then
+ * replaces the old one, so a reader never sees half a snapshot.
+ */
+class SnapshotStore{
+
+    private static final String TAG     = "PullToRefresh";
+    private static final int    MAGIC   = 0x50545253;
+    private static final int    VERSION = 1;
+
+    private static final int HEADER_SIZE  = 4 + 4 + 8 + 4;
+    private static final int COUNT_OFFSET = HEADER_SIZE - 4;
+
+    static class Snapshot{
+
+        final List<Object> items;
+        final long         lastUpdated;
+
+        Snapshot(List<Object> items, long lastUpdated){
+            this.items = items;
+            this.lastUpdated = lastUpdated;
+        }
+    }
+
+    private final File                                        file;
+    private final PullToRefreshListView.SnapshotCodec<Object> codec;
+    private final Runnable                                    writeRunnable;
+
+    private volatile long maxAge;
+    private volatile int  maxBytes;
+
+    // Guarded by this
+    private boolean writing;
+    private List<?> pendingItems;
+    private long    pendingLastUpdated;
+
+    @SuppressWarnings("unchecked")
+    SnapshotStore(File file, PullToRefreshListView.SnapshotCodec<?> codec, long maxAge, int maxBytes){
+        this.file = file;
+        this.codec = (PullToRefreshListView.SnapshotCodec<Object>) codec;
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+        this.writeRunnable = new Runnable(){
+
+            @Override
+            public void run(){
+                writePending();
+            }
+        };
+    }
+
+    void setMaxAge(long maxAge){
+        this.maxAge = maxAge;
+    }
+
+    void setMaxBytes(int maxBytes){
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Reads the snapshot. A snapshot that is older than the maximum age, larger than the
+     * maximum size or cannot be read is deleted.
+     *
+     * @return The snapshot, or null if there is none to show
+     */
+    Snapshot read(){
+        long length = file.length();
+        if(length == 0){
+            return null;
+        }
+        if(length < HEADER_SIZE || length > maxBytes){
+            file.delete();
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try{
+            randomAccessFile = new RandomAccessFile(file, "r");
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION){
+                file.delete();
+                return null;
+            }
+
+            long lastUpdated = buffer.getLong();
+            if(System.currentTimeMillis() - lastUpdated > maxAge){
+                file.delete();
+                return null;
+            }
+
+            int count = buffer.getInt();
+            if(count < 0 || count > buffer.remaining()){
+                throw new IOException("Corrupt item count " + count);
+            }
+
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+            List<Object> items = new ArrayList<Object>(count);
+            for(int i = 0; i < count; i++){
+                items.add(codec.readItem(in));
+            }
+
+            return new Snapshot(items, lastUpdated);
+        }catch(IOException e){
+            Log.w(TAG, "Dropping unreadable snapshot " + file, e);
+        }catch(RuntimeException e){
+            // A codec that reads a damaged or outdated snapshot may fail in any way
+            Log.w(TAG, "Dropping unreadable snapshot " + file, e);
+        }finally{
+            close(randomAccessFile);
+        }
+
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Writes a snapshot on the executor. While a write is running, only the last of
+     * the snapshots that arrive in the meantime is written after it.
+     *
+     * @param items       The items, which must not be modified afterwards
+     * @param lastUpdated The last-updated time of the items
+     * @param executor    The executor to write on
+     */
+    void writeAsync(List<?> items, long lastUpdated, Executor executor){
+        synchronized(this){
+            pendingItems = items;
+            pendingLastUpdated = lastUpdated;
+            if(writing){
+                return;
+            }
+            writing = true;
+        }
+
+        executor.execute(writeRunnable);
+    }
+
+    private void writePending(){
+        while(true){
+            List<?> items;
+            long lastUpdated;
+            synchronized(this){
+                if(pendingItems == null){
+                    writing = false;
+                    return;
+                }
+
+                items = pendingItems;
+                lastUpdated = pendingLastUpdated;
+                pendingItems = null;
+            }
+
+            try{
+                write(items, lastUpdated);
+            }catch(IOException e){
+                Log.w(TAG, "Could not write snapshot " + file, e);
+            }catch(RuntimeException e){
+                Log.w(TAG, "Could not write snapshot " + file, e);
+            }
+        }
+    }
+
+    private void write(List<?> items, long lastUpdated) throws IOException{
+        SnapshotBuffer bytes = new SnapshotBuffer();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(lastUpdated);
+        out.writeInt(0);
+
+        // Only the items that fit are kept; they are shown from the top, so these are the first ones
+        int count = 0;
+        int limit = maxBytes;
+        for(Object item : items){
+            int size = bytes.size();
+            codec.writeItem(item, out);
+            out.flush();
+
+            if(bytes.size() > limit){
+                bytes.truncate(size);
+                break;
+            }
+            count++;
+        }
+        bytes.putInt(COUNT_OFFSET, count);
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try{
+            bytes.writeTo(fileOut);
+            fileOut.getFD().sync();
+        }finally{
+            fileOut.close();
+        }
+
+        if(!temp.renameTo(file)){
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static void close(RandomAccessFile randomAccessFile){
+        if(randomAccessFile != null){
+            try{
+                randomAccessFile.close();
+            }catch(IOException e){
+                // Only read from
+            }
+        }
+    }
+
+    private static class SnapshotBuffer extends ByteArrayOutputStream{
+
+        void truncate(int size){
+            count = size;
+        }
+
+        void putInt(int offset, int value){
+            buf[offset] = (byte) (value >>> 24);
+            buf[offset + 1] = (byte) (value >>> 16);
+            buf[offset + 2] = (byte) (value >>> 8);
+            buf[offset + 3] = (byte) value;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream{
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer){
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(){
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length){
+            if(!buffer.hasRemaining()){
+                return -1;
+            }
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available(){
+            return buffer.remaining();
+        }
+    }
+}
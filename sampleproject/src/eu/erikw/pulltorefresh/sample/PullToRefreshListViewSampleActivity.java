@@ -17,11 +17,13 @@ import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
+import eu.erikw.PullToRefreshAdapter;
 import eu.erikw.PullToRefreshListView;
-import eu.erikw.PullToRefreshListView.OnRefreshListener;
+import eu.erikw.PullToRefreshListView.RefreshTask;
 import eu.erikw.pulltorefresh.sample.PullToRefreshListViewSampleActivity.PullToRefreshListViewSampleAdapter.ViewHolder;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class PullToRefreshListViewSampleActivity extends Activity { 
 
@@ -55,44 +57,43 @@ public class PullToRefreshListViewSampleActivity extends Activity {
 		// listView.setTextReleaseToRefresh("Release to Refresh");
 		// listView.setTextRefreshing("Refreshing");
 
-		// MANDATORY: Set the onRefreshListener on the list. You could also use
-		// listView.setOnRefreshListener(this); and let this Activity
-		// implement OnRefreshListener.
-		listView.setOnRefreshListener(new OnRefreshListener() {
+		// OPTIONAL: Cancel refreshes that take longer than 10 seconds
+		// listView.setRefreshTimeout(10000);
 
-			@Override
-			public void onRefresh() {
-				// Your code to refresh the list contents goes here
-
-				// for example:
-				// If this is a webservice call, it might be asynchronous so
-				// you would have to call listView.onRefreshComplete(); when
-				// the webservice returns the data
-				adapter.loadData();
-				
-				// Make sure you call listView.onRefreshComplete()
-				// when the loading is done. This can be done from here or any
-				// other place, like on a broadcast receive from your loading
-				// service or the onPostExecute of your AsyncTask.
+		// MANDATORY: Set the refreshTask on the list. The refresh work runs on a
+		// background thread, the result is delivered on the UI thread and the list
+		// resets the header by itself. You could also use
+		// listView.setOnRefreshListener(..) and pass the new items to
+		// listView.onRefreshComplete(items) yourself when the loading is done.
+		listView.setRefreshTask(new RefreshTask<List<Team>>() {
 
+			@Override
+			public List<Team> onRefreshInBackground() throws Exception {
 				// For the sake of this sample, the code will pause here to
 				// force a delay when invoking the refresh
-				listView.postDelayed(new Runnable() {
-
-					
-					@Override
-					public void run() {
-						listView.onRefreshComplete();
-					}
-				}, 2000);
+				Thread.sleep(2000);
+				return fetchTeams();
+			}
+
+			@Override
+			public void onRefreshResult(List<Team> result) {
+				// The header is reset right after this, so show the new list
+				// contents right away
+				adapter.setItems(result);
+			}
+
+			@Override
+			public void onRefreshFailed(Exception e) {
+				Toast.makeText(PullToRefreshListViewSampleActivity.this, e.getMessage(), Toast.LENGTH_SHORT).show();
 			}
 		});
 
 		adapter = new PullToRefreshListViewSampleAdapter() {};
 		listView.setAdapter(adapter);
 		
-		// Request the adapter to load the data
-		adapter.loadData();
+		// Pass the initial data to the adapter. Only the rows that changed are
+		// bound again.
+		adapter.submitItems(fetchTeams());
 
 		// click listener
 		listView.setOnItemClickListener(new OnItemClickListener() {
@@ -152,91 +153,83 @@ public class PullToRefreshListViewSampleActivity extends Activity {
 	
 
 	/**
-	 * The adapter used to display the results in the list
-	 * 
+	 * Loads the data. Here add your code to load the data for example from a
+	 * webservice or DB.
 	 */
-	public abstract class PullToRefreshListViewSampleAdapter extends android.widget.BaseAdapter {
-
-		private ArrayList<String> items = new ArrayList<String>();;
-		
-		public class ViewHolder {
-			public String id;
-			public TextView name;
+	private static List<Team> fetchTeams() {
+		String[] names = {
+				"Ajax Amsterdam", "Barcelona", "Manchester United", "Chelsea",
+				"Real Madrid", "Bayern Munchen", "Internazionale", "Valencia",
+				"Arsenal", "AS Roma", "Tottenham Hotspur", "PSV", "Olympique Lyon",
+				"AC Milan", "Dortmund", "Schalke 04", "Twente", "Porto", "Juventus"};
+
+		ArrayList<Team> teams = new ArrayList<Team>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			// A real data source would have its own ids
+			teams.add(new Team(i + 1, names[i]));
 		}
+		return teams;
+	}
 
-		/**
-		 * Loads the data. 
-		 */
-		public void loadData() {
-			
-			// Here add your code to load the data for example from a webservice or DB
-			
-			items = new ArrayList<String>();
-
-			items.add("Ajax Amsterdam");
-			items.add("Barcelona");
-			items.add("Manchester United");
-			items.add("Chelsea");
-			items.add("Real Madrid");
-			items.add("Bayern Munchen");
-			items.add("Internazionale");
-			items.add("Valencia");
-			items.add("Arsenal");
-			items.add("AS Roma");
-			items.add("Tottenham Hotspur");
-			items.add("PSV");
-			items.add("Olympique Lyon");
-			items.add("AC Milan");
-			items.add("Dortmund");
-			items.add("Schalke 04");
-			items.add("Twente");
-			items.add("Porto");
-			items.add("Juventus");
+	/**
+	 * An item of the list, with the id it has in the data source
+	 */
+	public static class Team {
 
-			
-			// MANDATORY: Notify that the data has changed
-			notifyDataSetChanged();
+		public final long id;
+		public final String name;
+
+		public Team(long id, String name) {
+			this.id = id;
+			this.name = name;
 		}
 
 		@Override
-		public int getCount() {
-			return items.size();
+		public String toString() {
+			return name;
 		}
+	}
 
-		@Override
-		public Object getItem(int position) {
-			return items.get(position);
+	/**
+	 * The adapter used to display the results in the list
+	 * 
+	 */
+	public abstract class PullToRefreshListViewSampleAdapter extends PullToRefreshAdapter<Team> {
+
+		public class ViewHolder {
+			public String id;
+			public TextView name;
 		}
 
 		@Override
-		public long getItemId(int position) {
-			return position;
+		public long getStableId(Team item) {
+			return item.id;
 		}
 
 		@Override
-		public View getView(int position, View convertView, ViewGroup parent) {
-			View rowView = convertView;
-
-			String record = (String) getItem(position);
+		public boolean areContentsTheSame(Team oldItem, Team newItem) {
+			return oldItem.name.equals(newItem.name);
+		}
 
+		@Override
+		public View newView(ViewGroup parent, int viewType) {
 			LayoutInflater inflater = PullToRefreshListViewSampleActivity.this.getLayoutInflater();
 
-			ViewHolder viewHolder = new ViewHolder();
-
-			if (convertView == null){
-				rowView = inflater.inflate(R.layout.list_item,null);
-
-				viewHolder.name = (TextView) rowView.findViewById(R.id.textView1);
+			View rowView = inflater.inflate(R.layout.list_item, null);
 
-				rowView.setTag(viewHolder);
-			}
+			ViewHolder viewHolder = new ViewHolder();
+			viewHolder.name = (TextView) rowView.findViewById(R.id.textView1);
+			rowView.setTag(viewHolder);
 
-			final ViewHolder holder = (ViewHolder) rowView.getTag();
+			return rowView;
+		}
 
-			holder.name.setText(record); 
+		@Override
+		public void bindView(View view, Team item, int position) {
+			ViewHolder holder = (ViewHolder) view.getTag();
 
-			return rowView;
+			holder.name.setText(item.name); 
 		}
 	}
 
-}
\ No newline at end of file
+}